@@ -0,0 +1,128 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static flutter.plugins.contactsservice.contactsservice.ContactsServicePlugin.loadContactPhoto;
+
+/**
+ * Keeps the most recently loaded avatars in memory, up to a total size in bytes, so that
+ * scrolling back through a list of contacts does not read and decode their photos again.
+ * The whole cache is dropped whenever the contacts change.
+ * <p>
+ * The avatars are loaded outside of the lock, so that the cache can be read while a photo is
+ * being decoded. An avatar whose load started before the cache was last dropped is returned
+ * but not kept, as it may be the photo the contact had before the change.
+ */
+class AvatarCache {
+
+    /** Cached for contacts without a photo, so that they are not looked up again either */
+    private static final byte[] NO_AVATAR = new byte[0];
+
+    private final ContentResolver contentResolver;
+    private final int maxBytes;
+    /** In access order, the least recently used first */
+    private final LinkedHashMap<String, byte[]> avatars = new LinkedHashMap<>(16, 0.75f, true);
+    private int bytes;
+    /** Incremented whenever the cache is dropped */
+    private long generation;
+    /** Set once the observer is gone, after which no change would drop the avatars kept */
+    private boolean closed;
+
+    private final ContentObserver observer = new ContentObserver(new Handler(Looper.getMainLooper())) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+        }
+    };
+
+    /**
+     * @param maxBytes the total size of the avatars kept in memory
+     */
+    AvatarCache(ContentResolver contentResolver, int maxBytes) {
+        this.contentResolver = contentResolver;
+        this.maxBytes = maxBytes;
+        contentResolver.registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, observer);
+    }
+
+    /**
+     * Returns the avatar of the contact, or null if it has none
+     * @see ContactsServicePlugin#loadContactPhoto
+     */
+    byte[] get(Integer identifier, boolean highRes, boolean raw, int size) {
+        String key = identifier + (highRes ? ":high:" : ":low:") + (raw ? "raw:" : "") + size;
+        long generation;
+        synchronized (this) {
+            byte[] avatar = avatars.get(key);
+            if (avatar != null) {
+                return avatar != NO_AVATAR ? avatar : null;
+            }
+            generation = this.generation;
+        }
+        byte[] avatar = load(identifier, highRes, raw, size);
+        put(key, avatar != null ? avatar : NO_AVATAR, generation);
+        return avatar;
+    }
+
+    /**
+     * Drops all the avatars, along with those being loaded
+     */
+    synchronized void invalidate() {
+        avatars.clear();
+        bytes = 0;
+        generation++;
+    }
+
+    /**
+     * Stops observing the provider and drops the avatars. They are still loaded afterwards, but
+     * no longer kept.
+     */
+    synchronized void close() {
+        if (!closed) {
+            contentResolver.unregisterContentObserver(observer);
+            closed = true;
+        }
+        invalidate();
+    }
+
+    /**
+     * Returns the total size of the avatars kept
+     */
+    synchronized int bytes() {
+        return bytes;
+    }
+
+    /**
+     * Reads the avatar from the provider, see {@link ContactsServicePlugin#loadContactPhoto}
+     */
+    byte[] load(Integer identifier, boolean highRes, boolean raw, int size) {
+        return loadContactPhoto(identifier, highRes, raw, size, contentResolver);
+    }
+
+    private synchronized void put(String key, byte[] avatar, long generation) {
+        if (closed || generation != this.generation) {
+            return;
+        }
+        byte[] previous = avatars.put(key, avatar);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += sizeOf(avatar);
+        Iterator<Map.Entry<String, byte[]>> eldest = avatars.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= sizeOf(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    private static int sizeOf(byte[] avatar) {
+        return Math.max(avatar.length, 1);
+    }
+}
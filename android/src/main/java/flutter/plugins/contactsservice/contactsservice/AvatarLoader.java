@@ -0,0 +1,123 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.content.ContentResolver;
+import android.os.AsyncTask;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static flutter.plugins.contactsservice.contactsservice.ContactsServicePlugin.loadContactPhoto;
+
+/**
+ * Loads the avatars of many contacts at once. Reading a photo mostly waits on the contacts
+ * provider, so several of them are read at the same time on a pool shared by all the calls.
+ */
+class AvatarLoader {
+
+    /** Photos read at the same time by a single call, unless it asks for another number */
+    static final int DEFAULT_CONCURRENCY = 4;
+    /**
+     * Threads shared by all the calls, so that concurrent calls cannot flood the provider. Once
+     * they are all busy, the photos of an interactive call are read before those of a background
+     * one, as in {@link TaskScheduler}.
+     */
+    private static final int MAX_THREADS = 8;
+
+    private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+            30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+    /** Breaks the ties between workers of the same priority, which start in the order they came */
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    static {
+        POOL.allowCoreThreadTimeOut(true);
+    }
+
+    private final ContentResolver contentResolver;
+    private final AvatarCache cache;
+    private final boolean highRes;
+    private final boolean raw;
+    private final int size;
+    private final int priority;
+
+    /**
+     * @param priority the {@link TaskScheduler} priority of the call, which orders its workers
+     * @param cache the cache to read the avatars through, or null to always read them from the provider
+     * @see ContactsServicePlugin#loadContactPhoto
+     */
+    AvatarLoader(ContentResolver contentResolver, int priority, AvatarCache cache, boolean highRes, boolean raw, int size) {
+        this.contentResolver = contentResolver;
+        this.priority = priority;
+        this.cache = cache;
+        this.highRes = highRes;
+        this.raw = raw;
+        this.size = size;
+    }
+
+    /**
+     * Loads the avatars of the given contacts, at most {@code concurrency} at a time, the calling
+     * thread included. Interrupting the calling thread, as {@link AsyncTask#cancel(boolean)} does,
+     * stops the call once the photos being read are done.
+     * @return the avatars by contact identifier, without the contacts that have none
+     */
+    HashMap<Integer, byte[]> load(final List<Integer> identifiers, int concurrency) throws InterruptedException {
+        final ConcurrentHashMap<Integer, byte[]> avatars = new ConcurrentHashMap<>();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int i;
+                while (!cancelled.get() && !Thread.currentThread().isInterrupted()
+                        && (i = next.getAndIncrement()) < identifiers.size()) {
+                    Integer identifier = identifiers.get(i);
+                    byte[] avatar = load(identifier);
+                    if (avatar != null) {
+                        avatars.put(identifier, avatar);
+                    }
+                }
+            }
+        };
+
+        int workers = Math.min(Math.max(concurrency, 1), identifiers.size());
+        ArrayList<FutureTask<Void>> futures = new ArrayList<>(workers);
+        try {
+            for (int i = 1; i < workers; i++) {
+                // Not submitted, as the pool would wrap it in a task its queue cannot order.
+                FutureTask<Void> future = new FutureTask<>(worker, null);
+                POOL.execute(new TaskScheduler.Entry(future, priority, SEQUENCE.getAndIncrement()));
+                futures.add(future);
+            }
+            worker.run();
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            for (FutureTask<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // Stops the other workers when the call is interrupted or one of them failed.
+            cancelled.set(true);
+        }
+        return new HashMap<>(avatars);
+    }
+
+    private byte[] load(Integer identifier) {
+        if (cache != null) {
+            return cache.get(identifier, highRes, raw, size);
+        }
+        return loadContactPhoto(identifier, highRes, raw, size, contentResolver);
+    }
+}
@@ -2,9 +2,19 @@ package flutter.plugins.contactsservice.contactsservice;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Set;
 
 public class Contact implements Comparable<Contact> {
 
+    /** Names of the fields that can be requested when reading contacts */
+    static final String FIELD_NAME = "name";
+    static final String FIELD_NOTE = "note";
+    static final String FIELD_PHONES = "phones";
+    static final String FIELD_EMAILS = "emails";
+    static final String FIELD_ORGANIZATION = "organization";
+    static final String FIELD_POSTAL_ADDRESSES = "postalAddresses";
+    static final String FIELD_BIRTHDAY = "birthday";
+
     Contact(Integer id) {
         this.identifier = id;
     }
@@ -19,38 +29,83 @@ public class Contact implements Comparable<Contact> {
     ArrayList<PostalAddress> postalAddresses = new ArrayList<>();
     byte[] avatar = new byte[0];
 
+    /**
+     * Returns a copy of this contact sharing its lists of phones, emails and addresses
+     */
+    Contact copy() {
+        Contact contact = new Contact(identifier);
+        contact.displayName = displayName;
+        contact.givenName = givenName;
+        contact.middleName = middleName;
+        contact.familyName = familyName;
+        contact.prefix = prefix;
+        contact.suffix = suffix;
+        contact.company = company;
+        contact.jobTitle = jobTitle;
+        contact.note = note;
+        contact.birthday = birthday;
+        contact.emails = emails;
+        contact.phones = phones;
+        contact.postalAddresses = postalAddresses;
+        contact.avatar = avatar;
+        return contact;
+    }
+
     HashMap<String, Object> toMap() {
+        return toMap(null);
+    }
+
+    /**
+     * Returns the map sent to Dart, restricted to the given fields
+     * @param fields the fields to include, or null for all of them
+     */
+    HashMap<String, Object> toMap(Set<String> fields) {
         HashMap<String, Object> contactMap = new HashMap<>();
         contactMap.put("identifier", identifier);
         contactMap.put("displayName", displayName);
-        contactMap.put("givenName", givenName);
-        contactMap.put("middleName", middleName);
-        contactMap.put("familyName", familyName);
-        contactMap.put("prefix", prefix);
-        contactMap.put("suffix", suffix);
-        contactMap.put("company", company);
-        contactMap.put("jobTitle", jobTitle);
         contactMap.put("avatar", avatar);
-        contactMap.put("note", note);
-        contactMap.put("birthday", birthday);
 
-        ArrayList<HashMap<String, String>> emailsMap = new ArrayList<>();
-        for (Item email : emails) {
-            emailsMap.add(email.toMap());
+        if (fields == null || fields.contains(FIELD_NAME)) {
+            contactMap.put("givenName", givenName);
+            contactMap.put("middleName", middleName);
+            contactMap.put("familyName", familyName);
+            contactMap.put("prefix", prefix);
+            contactMap.put("suffix", suffix);
+        }
+        if (fields == null || fields.contains(FIELD_ORGANIZATION)) {
+            contactMap.put("company", company);
+            contactMap.put("jobTitle", jobTitle);
+        }
+        if (fields == null || fields.contains(FIELD_NOTE)) {
+            contactMap.put("note", note);
+        }
+        if (fields == null || fields.contains(FIELD_BIRTHDAY)) {
+            contactMap.put("birthday", birthday);
+        }
+
+        if (fields == null || fields.contains(FIELD_EMAILS)) {
+            ArrayList<HashMap<String, String>> emailsMap = new ArrayList<>();
+            for (Item email : emails) {
+                emailsMap.add(email.toMap());
+            }
+            contactMap.put("emails", emailsMap);
         }
-        contactMap.put("emails", emailsMap);
 
-        ArrayList<HashMap<String, String>> phonesMap = new ArrayList<>();
-        for (Item phone : phones) {
-            phonesMap.add(phone.toMap());
+        if (fields == null || fields.contains(FIELD_PHONES)) {
+            ArrayList<HashMap<String, String>> phonesMap = new ArrayList<>();
+            for (Item phone : phones) {
+                phonesMap.add(phone.toMap());
+            }
+            contactMap.put("phones", phonesMap);
         }
-        contactMap.put("phones", phonesMap);
 
-        ArrayList<HashMap<String, String>> addressesMap = new ArrayList<>();
-        for (PostalAddress address : postalAddresses) {
-            addressesMap.add(address.toMap());
+        if (fields == null || fields.contains(FIELD_POSTAL_ADDRESSES)) {
+            ArrayList<HashMap<String, String>> addressesMap = new ArrayList<>();
+            for (PostalAddress address : postalAddresses) {
+                addressesMap.add(address.toMap());
+            }
+            contactMap.put("postalAddresses", addressesMap);
         }
-        contactMap.put("postalAddresses", addressesMap);
 
         return contactMap;
     }
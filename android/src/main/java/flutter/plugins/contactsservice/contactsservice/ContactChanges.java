@@ -0,0 +1,107 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+
+/***
+ * Identifiers of the contacts updated or deleted since a given time, as recorded by the
+ * Contacts provider. The timestamps this relies on were added in API 18.
+ ***/
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class ContactChanges {
+
+    final ArrayList<String> updatedIds = new ArrayList<>();
+    final ArrayList<String> deletedIds = new ArrayList<>();
+    /** The time of the latest change seen, to pass as the start of the next query */
+    long timestamp;
+    /**
+     * The identifier of the last contact changed at {@link #timestamp}, to tell apart the
+     * contacts changed in the same millisecond
+     */
+    long contactId;
+
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    /**
+     * Whether deletions made since the given time may already have been purged by the provider
+     */
+    static boolean isExpired(long since) {
+        return System.currentTimeMillis() - since > ContactsContract.DeletedContacts.DAYS_KEPT_MILLISECONDS;
+    }
+
+    /**
+     * Returns the changes made after the given watermark: after the given time, or at that time
+     * to a contact of a greater identifier. The watermark of the changes is that of the last of
+     * them, so that passing it to the next call returns each change once.
+     */
+    static ContactChanges since(ContentResolver contentResolver, long since, long sinceContactId) {
+        ContactChanges changes = new ContactChanges();
+        changes.timestamp = since;
+        changes.contactId = sinceContactId;
+        String[] selectionArgs = new String[]{String.valueOf(since), String.valueOf(since), String.valueOf(sinceContactId)};
+
+        Cursor cursor = contentResolver.query(ContactsContract.Contacts.CONTENT_URI,
+                new String[]{ContactsContract.Contacts._ID, ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP},
+                after(ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP, ContactsContract.Contacts._ID), selectionArgs, null);
+        while (cursor != null && cursor.moveToNext()) {
+            changes.updatedIds.add(cursor.getString(0));
+            changes.advance(cursor.getLong(1), cursor.getLong(0));
+        }
+        if (cursor != null)
+            cursor.close();
+
+        cursor = contentResolver.query(ContactsContract.DeletedContacts.CONTENT_URI,
+                new String[]{ContactsContract.DeletedContacts.CONTACT_ID, ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP},
+                after(ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP, ContactsContract.DeletedContacts.CONTACT_ID), selectionArgs, null);
+        while (cursor != null && cursor.moveToNext()) {
+            changes.deletedIds.add(cursor.getString(0));
+            changes.advance(cursor.getLong(1), cursor.getLong(0));
+        }
+        if (cursor != null)
+            cursor.close();
+
+        return changes;
+    }
+
+    /**
+     * Returns the watermark of the latest change to any contact, with a timestamp of 0 if there
+     * are no contacts
+     */
+    static ContactChanges latest(ContentResolver contentResolver) {
+        Uri uri = ContactsContract.Contacts.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY, "1")
+                .build();
+        Cursor cursor = contentResolver.query(uri, new String[]{ContactsContract.Contacts._ID, ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP},
+                null, null, ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " DESC, " + ContactsContract.Contacts._ID + " DESC");
+        ContactChanges latest = new ContactChanges();
+        if (cursor != null && cursor.moveToFirst()) {
+            latest.timestamp = cursor.getLong(1);
+            latest.contactId = cursor.getLong(0);
+        }
+        if (cursor != null)
+            cursor.close();
+        return latest;
+    }
+
+    /**
+     * Returns the selection of the rows after a watermark, given as the time twice then the identifier
+     */
+    private static String after(String timestampColumn, String idColumn) {
+        return timestampColumn + " > ? OR (" + timestampColumn + " = ? AND " + idColumn + " > ?)";
+    }
+
+    private void advance(long timestamp, long contactId) {
+        if (timestamp > this.timestamp || (timestamp == this.timestamp && contactId > this.contactId)) {
+            this.timestamp = timestamp;
+            this.contactId = contactId;
+        }
+    }
+}
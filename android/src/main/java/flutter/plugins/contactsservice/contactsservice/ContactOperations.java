@@ -0,0 +1,740 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.os.Build;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static android.provider.ContactsContract.CommonDataKinds;
+import static android.provider.ContactsContract.CommonDataKinds.Organization;
+import static android.provider.ContactsContract.CommonDataKinds.Phone;
+import static android.provider.ContactsContract.CommonDataKinds.StructuredName;
+
+/**
+ * Builds the provider operations that add, update or delete contacts, and applies them.
+ * Many contacts are written with a few {@link ContentResolver#applyBatch} calls rather than
+ * one call per contact.
+ */
+@TargetApi(Build.VERSION_CODES.ECLAIR)
+class ContactOperations {
+
+    static final int ADD = 0;
+    static final int UPDATE = 1;
+    static final int DELETE = 2;
+
+    private static final String LOG_TAG = "flutter_contacts";
+
+    /**
+     * Most operations applied in a single batch. The contacts provider rejects more than 500
+     * operations between two yield points, and the whole batch has to fit in a binder transaction.
+     */
+    static final int MAX_BATCH_OPERATIONS = 400;
+
+    private ContactOperations() {}
+
+    /**
+     * Applies the operation to every contact, packing the contacts into as few batches as possible.
+     * A contact is never split across batches. When a batch fails, its contacts are applied one by
+     * one so that a single invalid contact does not fail the others. Large photos are streamed
+     * once their batch is applied, see {@link ContactPhotos}.
+     * @param operation one of {@link #ADD}, {@link #UPDATE} or {@link #DELETE}
+     * @return whether each contact was written, in the order of the contacts
+     */
+    static boolean[] apply(ContentResolver contentResolver, int operation, List<Contact> contacts) {
+        boolean[] results = new boolean[contacts.size()];
+        HashMap<Integer, ArrayList<Row>> rows = readRows(contentResolver, operation, contacts);
+        // Position of the first operation of each contact in its batch
+        int[] starts = new int[contacts.size()];
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+        int first = 0;
+        for (int i = 0; i < contacts.size(); i++) {
+            Contact contact = contacts.get(i);
+            // Made once, as a contact that does not fit in the batch is built again.
+            byte[] photo = photo(operation, contact, rows);
+            if (operation != DELETE && ContactPhotos.isLarge(contact.avatar) && photo == null) {
+                // Left out of the batch, and reported as not written.
+                starts[i] = -1;
+                continue;
+            }
+            int start = ops.size();
+            build(ops, operation, contact, photo, rows);
+            if (start > 0 && ops.size() > MAX_BATCH_OPERATIONS) {
+                // This contact does not fit, apply the previous ones and start a new batch with it.
+                ops.subList(start, ops.size()).clear();
+                applyBatch(contentResolver, operation, contacts, first, i, starts, rows, ops, results);
+                ops.clear();
+                first = i;
+                start = 0;
+                build(ops, operation, contact, photo, rows);
+            }
+            starts[i] = start;
+        }
+        if (!ops.isEmpty()) {
+            applyBatch(contentResolver, operation, contacts, first, contacts.size(), starts, rows, ops, results);
+        }
+        return results;
+    }
+
+    /**
+     * Applies the operation to a single contact
+     */
+    static boolean apply(ContentResolver contentResolver, int operation, Contact contact) {
+        List<Contact> contacts = Collections.singletonList(contact);
+        HashMap<Integer, ArrayList<Row>> rows = readRows(contentResolver, operation, contacts);
+        byte[] photo = photo(operation, contact, rows);
+        if (operation != DELETE && ContactPhotos.isLarge(contact.avatar) && photo == null)
+            return false;
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+        build(ops, operation, contact, photo, rows);
+        if (ops.isEmpty())
+            return true;
+        ContentProviderResult[] results = applyBatch(contentResolver, ops);
+        if (results == null)
+            return false;
+        applied(contentResolver, operation, contacts, 0, 1, new int[]{0}, rows, results);
+        return true;
+    }
+
+    private static void applyBatch(ContentResolver contentResolver, int operation, List<Contact> contacts,
+                                   int from, int to, int[] starts, HashMap<Integer, ArrayList<Row>> rows,
+                                   ArrayList<ContentProviderOperation> ops, boolean[] results) {
+        ContentProviderResult[] batchResults = applyBatch(contentResolver, ops);
+        if (batchResults == null && to - from > 1) {
+            for (int i = from; i < to; i++) {
+                if (starts[i] != -1)
+                    results[i] = apply(contentResolver, operation, contacts.get(i));
+            }
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            results[i] = batchResults != null && starts[i] != -1;
+        }
+        if (batchResults != null) {
+            applied(contentResolver, operation, contacts, from, to, starts, rows, batchResults);
+        }
+    }
+
+    /**
+     * @return the results of the operations, or null if the batch failed
+     */
+    private static ContentProviderResult[] applyBatch(ContentResolver contentResolver, ArrayList<ContentProviderOperation> ops) {
+        PerformanceStats.count(PerformanceStats.OPERATIONS, ops.size());
+        long start = PerformanceStats.begin(PerformanceStats.APPLY_BATCH);
+        try {
+            return contentResolver.applyBatch(ContactsContract.AUTHORITY, ops);
+        } catch (Exception e) {
+            Log.w(LOG_TAG, "Failed to apply " + ops.size() + " operations", e);
+            return null;
+        } finally {
+            PerformanceStats.end(PerformanceStats.APPLY_BATCH, start);
+        }
+    }
+
+    /**
+     * Streams the large photos of the contacts of an applied batch, of which the batch only
+     * wrote thumbnails, and remembers the photos the updated contacts now have
+     * @param results the results of the operations of the batch
+     */
+    private static void applied(ContentResolver contentResolver, int operation, List<Contact> contacts,
+                                int from, int to, int[] starts, HashMap<Integer, ArrayList<Row>> rows,
+                                ContentProviderResult[] results) {
+        ArrayList<Contact> updated = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            Contact contact = contacts.get(i);
+            if (starts[i] == -1)
+                continue;
+            if (operation == DELETE) {
+                ContactPhotos.forget(contact.identifier);
+                continue;
+            }
+            boolean written = true;
+            if (ContactPhotos.isLarge(contact.avatar)) {
+                long rawContactId = -1;
+                if (operation == ADD && results[starts[i]].uri != null) {
+                    rawContactId = ContentUris.parseId(results[starts[i]].uri);
+                } else if (operation == UPDATE) {
+                    rawContactId = getPhotoRawContactId(rows.get(contact.identifier));
+                }
+                if (rawContactId != -1)
+                    written = ContactPhotos.writeDisplayPhoto(contentResolver, rawContactId, contact.avatar);
+            }
+            // Only a photo the contact has for sure is taken as unchanged by the next update.
+            if (operation == UPDATE && written)
+                updated.add(contact);
+            else if (operation == UPDATE)
+                ContactPhotos.forget(contact.identifier);
+        }
+        if (updated.isEmpty() || !ContactChanges.isSupported())
+            return;
+        HashMap<Integer, Long> lastUpdated = readLastUpdated(contentResolver, updated);
+        for (Contact contact : updated) {
+            Long timestamp = lastUpdated.get(contact.identifier);
+            if (timestamp != null)
+                ContactPhotos.remember(contact.identifier, contact.avatar, timestamp);
+            else
+                ContactPhotos.forget(contact.identifier);
+        }
+    }
+
+    /**
+     * Returns the raw contact whose display photo to write, or -1 if the photo is unchanged or
+     * the raw contacts are unknown
+     */
+    private static long getPhotoRawContactId(List<Row> existing) {
+        if (existing == null || existing.isEmpty())
+            return -1;
+        Row photo = find(existing, CommonDataKinds.Photo.CONTENT_ITEM_TYPE);
+        if (photo != null)
+            return photo.keep ? -1 : photo.rawContactId;
+        return getRawContactId(existing);
+    }
+
+    /**
+     * Returns the raw contact new rows go to: the one holding the name, as the contact's other
+     * details usually do
+     */
+    private static long getRawContactId(List<Row> existing) {
+        Row name = find(existing, StructuredName.CONTENT_ITEM_TYPE);
+        return name != null ? name.rawContactId : existing.get(0).rawContactId;
+    }
+
+    /**
+     * Returns the photo the batch writes to the contact, see {@link ContactPhotos#inline}. A photo
+     * row kept as it is needs none, and the avatar is then not decoded.
+     * @return the photo, or null if the contact has a large avatar that could not be made small enough
+     */
+    private static byte[] photo(int operation, Contact contact, HashMap<Integer, ArrayList<Row>> rows) {
+        if (operation == DELETE)
+            return null;
+        if (operation == UPDATE && rows.containsKey(contact.identifier)) {
+            Row photo = find(rows.get(contact.identifier), CommonDataKinds.Photo.CONTENT_ITEM_TYPE);
+            if (photo != null && photo.keep)
+                return contact.avatar;
+        }
+        return ContactPhotos.inline(contact.avatar);
+    }
+
+    private static void build(ArrayList<ContentProviderOperation> ops, int operation, Contact contact,
+                              byte[] photo, HashMap<Integer, ArrayList<Row>> rows) {
+        switch (operation) {
+            case ADD:
+                add(ops, contact, photo);
+                break;
+            case UPDATE:
+                update(ops, contact, photo, rows.get(contact.identifier));
+                break;
+            case DELETE:
+                delete(ops, contact);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    /**
+     * Appends the operations inserting the contact. They refer to the raw contact they insert by
+     * its position in the batch, so they can be appended after the operations of other contacts.
+     * They are not yield points: if a batch fails, none of its contacts were added and they can
+     * safely be added again one by one.
+     * @param photo the photo to write, see {@link ContactPhotos#inline}
+     */
+    static void add(ArrayList<ContentProviderOperation> ops, Contact contact, byte[] photo) {
+        final int rawContact = ops.size();
+
+        ContentProviderOperation.Builder op = ContentProviderOperation.newInsert(ContactsContract.RawContacts.CONTENT_URI)
+                .withValue(ContactsContract.RawContacts.ACCOUNT_TYPE, null)
+                .withValue(ContactsContract.RawContacts.ACCOUNT_NAME, null);
+        ops.add(op.build());
+
+        op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContact)
+                .withValue(ContactsContract.Data.MIMETYPE, StructuredName.CONTENT_ITEM_TYPE)
+                .withValue(StructuredName.GIVEN_NAME, contact.givenName)
+                .withValue(StructuredName.MIDDLE_NAME, contact.middleName)
+                .withValue(StructuredName.FAMILY_NAME, contact.familyName)
+                .withValue(StructuredName.PREFIX, contact.prefix)
+                .withValue(StructuredName.SUFFIX, contact.suffix);
+        ops.add(op.build());
+
+        op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContact)
+                .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.Note.CONTENT_ITEM_TYPE)
+                .withValue(CommonDataKinds.Note.NOTE, contact.note);
+        ops.add(op.build());
+
+        op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContact)
+                .withValue(ContactsContract.Data.MIMETYPE, Organization.CONTENT_ITEM_TYPE)
+                .withValue(Organization.COMPANY, contact.company)
+                .withValue(Organization.TITLE, contact.jobTitle);
+        ops.add(op.build());
+
+        //Photo
+        op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContact)
+                .withValue(ContactsContract.Data.IS_SUPER_PRIMARY, 1)
+                .withValue(CommonDataKinds.Photo.PHOTO, photo)
+                .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.Photo.CONTENT_ITEM_TYPE);
+        ops.add(op.build());
+
+        //Phones
+        for (Item phone : contact.phones) {
+            op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+                    .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContact)
+                    .withValue(ContactsContract.Data.MIMETYPE, Phone.CONTENT_ITEM_TYPE)
+                    .withValue(Phone.NUMBER, phone.value);
+            withPhoneType(op, phone);
+            ops.add(op.build());
+        }
+
+        //Emails
+        for (Item email : contact.emails) {
+            op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+                    .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContact)
+                    .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.Email.CONTENT_ITEM_TYPE)
+                    .withValue(CommonDataKinds.Email.ADDRESS, email.value);
+            int type = Item.stringToEmailType(email.label);
+            op.withValue(CommonDataKinds.Email.TYPE, type)
+                    .withValue(CommonDataKinds.Email.LABEL, type == CommonDataKinds.Email.TYPE_CUSTOM ? email.label : null);
+            ops.add(op.build());
+        }
+
+        //Postal addresses
+        for (PostalAddress address : contact.postalAddresses) {
+            int type = PostalAddress.stringToPostalAddressType(address.label);
+            op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+                    .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContact)
+                    .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE)
+                    .withValue(CommonDataKinds.StructuredPostal.TYPE, type)
+                    .withValue(CommonDataKinds.StructuredPostal.LABEL, type == CommonDataKinds.StructuredPostal.TYPE_CUSTOM ? address.label : null)
+                    .withValue(CommonDataKinds.StructuredPostal.STREET, address.street)
+                    .withValue(CommonDataKinds.StructuredPostal.CITY, address.city)
+                    .withValue(CommonDataKinds.StructuredPostal.REGION, address.region)
+                    .withValue(CommonDataKinds.StructuredPostal.POSTCODE, address.postcode)
+                    .withValue(CommonDataKinds.StructuredPostal.COUNTRY, address.country);
+            ops.add(op.build());
+        }
+    }
+
+    /**
+     * Appends the operation deleting the contact. Deleting a contact again is harmless, so it
+     * may yield to other transactions before it.
+     */
+    static void delete(ArrayList<ContentProviderOperation> ops, Contact contact) {
+        ops.add(ContentProviderOperation.newDelete(ContactsContract.RawContacts.CONTENT_URI)
+                .withSelection(ContactsContract.RawContacts.CONTACT_ID + "=?", new String[]{String.valueOf(contact.identifier)})
+                .withYieldAllowed(!ops.isEmpty())
+                .build());
+    }
+
+    /**
+     * Appends the operations updating the contact, given the rows it has now. Only the rows that
+     * differ from the contact are written: a row is left alone if it already has the wanted values,
+     * updated in place if another row of its kind is no longer wanted, and inserted otherwise.
+     * Updating a contact again is harmless, so the operations may yield to other transactions
+     * before them.
+     * @param photo the photo to write, see {@link ContactPhotos#inline}
+     * @param existing the rows of the contact of the kinds an update writes, or null if unknown
+     */
+    static void update(ArrayList<ContentProviderOperation> ops, Contact contact, byte[] photo, List<Row> existing) {
+        if (existing == null || existing.isEmpty()) {
+            replace(ops, contact, photo);
+            return;
+        }
+
+        long rawContactId = getRawContactId(existing);
+
+        final int start = ops.size();
+        ArrayList<Row> unmatched = new ArrayList<>(existing);
+        ArrayList<Row> missing = new ArrayList<>();
+        Row name = null;
+        for (Row row : rows(contact, photo)) {
+            if (StructuredName.CONTENT_ITEM_TYPE.equals(row.mimeType)) {
+                name = row;
+            }
+            Row match = find(unmatched, row, true);
+            if (match != null) {
+                unmatched.remove(match);
+            } else {
+                missing.add(row);
+            }
+        }
+
+        for (Row row : missing) {
+            Row previous = find(unmatched, row, false);
+            ContentProviderOperation.Builder op;
+            if (previous != null) {
+                unmatched.remove(previous);
+                op = ContentProviderOperation.newUpdate(ContentUris.withAppendedId(ContactsContract.Data.CONTENT_URI, previous.id));
+            } else {
+                op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+                        .withValue(ContactsContract.Data.RAW_CONTACT_ID, rawContactId)
+                        .withValue(ContactsContract.Data.MIMETYPE, row.mimeType);
+            }
+            addRow(ops, start, op, row);
+        }
+
+        for (Row row : unmatched) {
+            if (StructuredName.CONTENT_ITEM_TYPE.equals(row.mimeType)) {
+                // The names of the other raw contacts are renamed, not deleted.
+                if (!row.matches(name)) {
+                    addRow(ops, start, ContentProviderOperation.newUpdate(
+                            ContentUris.withAppendedId(ContactsContract.Data.CONTENT_URI, row.id)), name);
+                }
+            } else {
+                ops.add(ContentProviderOperation.newDelete(ContentUris.withAppendedId(ContactsContract.Data.CONTENT_URI, row.id))
+                        .withYieldAllowed(start > 0 && ops.size() == start)
+                        .build());
+            }
+        }
+    }
+
+    /**
+     * Appends the operations updating the contact by deleting all its details but its name, and
+     * inserting them again. Used when the rows of the contact are not known.
+     */
+    static void replace(ArrayList<ContentProviderOperation> ops, Contact contact, byte[] photo) {
+        ContentProviderOperation.Builder op;
+
+        // Drop all details about contact except name
+        boolean yieldAllowed = !ops.isEmpty();
+        String[] mimeTypes = {Organization.CONTENT_ITEM_TYPE, Phone.CONTENT_ITEM_TYPE, CommonDataKinds.Email.CONTENT_ITEM_TYPE,
+                CommonDataKinds.Note.CONTENT_ITEM_TYPE, CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE, CommonDataKinds.Photo.CONTENT_ITEM_TYPE};
+        for (String mimeType : mimeTypes) {
+            op = ContentProviderOperation.newDelete(ContactsContract.Data.CONTENT_URI)
+                    .withSelection(ContactsContract.Data.CONTACT_ID + "=? AND " + ContactsContract.Data.MIMETYPE + "=?",
+                            new String[]{String.valueOf(contact.identifier), mimeType})
+                    .withYieldAllowed(yieldAllowed);
+            ops.add(op.build());
+            yieldAllowed = false;
+        }
+
+        for (Row row : rows(contact, photo)) {
+            if (StructuredName.CONTENT_ITEM_TYPE.equals(row.mimeType)) {
+                // Update data (name)
+                op = ContentProviderOperation.newUpdate(ContactsContract.Data.CONTENT_URI)
+                        .withSelection(ContactsContract.Data.CONTACT_ID + "=? AND " + ContactsContract.Data.MIMETYPE + "=?",
+                                new String[]{String.valueOf(contact.identifier), StructuredName.CONTENT_ITEM_TYPE});
+            } else {
+                // Insert data back into contact
+                op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+                        .withValue(ContactsContract.Data.MIMETYPE, row.mimeType)
+                        .withValue(ContactsContract.Data.RAW_CONTACT_ID, contact.identifier);
+            }
+            for (Map.Entry<String, Object> value : row.values.entrySet()) {
+                op.withValue(value.getKey(), value.getValue());
+            }
+            ops.add(op.build());
+        }
+    }
+
+    /**
+     * Returns the rows an update gives the contact, with their values but no identifiers
+     * @param photo the photo to write, see {@link ContactPhotos#inline}
+     */
+    static ArrayList<Row> rows(Contact contact, byte[] photo) {
+        ArrayList<Row> rows = new ArrayList<>();
+
+        Row row = new Row(StructuredName.CONTENT_ITEM_TYPE);
+        row.values.put(StructuredName.GIVEN_NAME, contact.givenName);
+        row.values.put(StructuredName.MIDDLE_NAME, contact.middleName);
+        row.values.put(StructuredName.FAMILY_NAME, contact.familyName);
+        row.values.put(StructuredName.PREFIX, contact.prefix);
+        row.values.put(StructuredName.SUFFIX, contact.suffix);
+        rows.add(row);
+
+        row = new Row(Organization.CONTENT_ITEM_TYPE);
+        row.values.put(Organization.TYPE, Organization.TYPE_WORK);
+        row.values.put(Organization.COMPANY, contact.company);
+        row.values.put(Organization.TITLE, contact.jobTitle);
+        rows.add(row);
+
+        row = new Row(CommonDataKinds.Note.CONTENT_ITEM_TYPE);
+        row.values.put(CommonDataKinds.Note.NOTE, contact.note);
+        rows.add(row);
+
+        //Photo
+        row = new Row(CommonDataKinds.Photo.CONTENT_ITEM_TYPE);
+        row.values.put(ContactsContract.Data.IS_SUPER_PRIMARY, 1);
+        row.values.put(CommonDataKinds.Photo.PHOTO, photo);
+        rows.add(row);
+
+        for (Item phone : contact.phones) {
+            row = new Row(Phone.CONTENT_ITEM_TYPE);
+            row.values.put(Phone.NUMBER, phone.value);
+            int type = Item.stringToPhoneType(phone.label);
+            row.values.put(Phone.TYPE, type);
+            row.values.put(Phone.LABEL, type == Phone.TYPE_CUSTOM ? phone.label : null);
+            rows.add(row);
+        }
+
+        for (Item email : contact.emails) {
+            row = new Row(CommonDataKinds.Email.CONTENT_ITEM_TYPE);
+            row.values.put(CommonDataKinds.Email.ADDRESS, email.value);
+            int type = Item.stringToEmailType(email.label);
+            row.values.put(CommonDataKinds.Email.TYPE, type);
+            row.values.put(CommonDataKinds.Email.LABEL, type == CommonDataKinds.Email.TYPE_CUSTOM ? email.label : null);
+            rows.add(row);
+        }
+
+        for (PostalAddress address : contact.postalAddresses) {
+            row = new Row(CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE);
+            int type = PostalAddress.stringToPostalAddressType(address.label);
+            row.values.put(CommonDataKinds.StructuredPostal.TYPE, type);
+            row.values.put(CommonDataKinds.StructuredPostal.LABEL, type == CommonDataKinds.StructuredPostal.TYPE_CUSTOM ? address.label : null);
+            row.values.put(CommonDataKinds.StructuredPostal.STREET, address.street);
+            row.values.put(CommonDataKinds.StructuredPostal.CITY, address.city);
+            row.values.put(CommonDataKinds.StructuredPostal.REGION, address.region);
+            row.values.put(CommonDataKinds.StructuredPostal.POSTCODE, address.postcode);
+            row.values.put(CommonDataKinds.StructuredPostal.COUNTRY, address.country);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static Row find(List<Row> rows, String mimeType) {
+        for (Row row : rows) {
+            if (row.mimeType.equals(mimeType)) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first of the rows of the same kind as the wanted row, and with the same values if asked
+     */
+    private static Row find(List<Row> rows, Row wanted, boolean sameValues) {
+        for (Row row : rows) {
+            if (row.mimeType.equals(wanted.mimeType) && (!sameValues || row.matches(wanted))) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Appends the operation writing the values of the row, the first operation of the contact being a yield point
+     * @param start the number of operations before the ones of the contact
+     */
+    private static void addRow(ArrayList<ContentProviderOperation> ops, int start,
+                               ContentProviderOperation.Builder op, Row row) {
+        for (Map.Entry<String, Object> value : row.values.entrySet()) {
+            op.withValue(value.getKey(), value.getValue());
+        }
+        ops.add(op.withYieldAllowed(start > 0 && ops.size() == start).build());
+    }
+
+    /**
+     * Columns read from the rows of the contacts to update
+     */
+    static final String[] ROW_PROJECTION = {
+            ContactsContract.Data._ID, ContactsContract.Data.CONTACT_ID, ContactsContract.Data.RAW_CONTACT_ID,
+            ContactsContract.Data.MIMETYPE, ContactsContract.Data.IS_SUPER_PRIMARY,
+            ContactsContract.Data.DATA1, ContactsContract.Data.DATA2, ContactsContract.Data.DATA3,
+            ContactsContract.Data.DATA4, ContactsContract.Data.DATA5, ContactsContract.Data.DATA6,
+            ContactsContract.Data.DATA7, ContactsContract.Data.DATA8, ContactsContract.Data.DATA9,
+            ContactsContract.Data.DATA10, ContactsContract.Data.DATA11, ContactsContract.Data.DATA12,
+            ContactsContract.Data.DATA13, ContactsContract.Data.DATA14, ContactsContract.Data.DATA15,
+    };
+
+    /**
+     * Kinds of the rows an update writes
+     */
+    private static final String[] ROW_MIMETYPES = {
+            StructuredName.CONTENT_ITEM_TYPE, Organization.CONTENT_ITEM_TYPE, CommonDataKinds.Note.CONTENT_ITEM_TYPE,
+            CommonDataKinds.Photo.CONTENT_ITEM_TYPE, Phone.CONTENT_ITEM_TYPE, CommonDataKinds.Email.CONTENT_ITEM_TYPE,
+            CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE,
+    };
+
+    /**
+     * Reads the rows of the contacts to update, see {@link #readRows(ContentResolver, List)}, and
+     * marks the photo rows already holding the avatars of the contacts to be kept as they are
+     * @return the rows, or null unless updating
+     */
+    private static HashMap<Integer, ArrayList<Row>> readRows(ContentResolver contentResolver, int operation, List<Contact> contacts) {
+        if (operation != UPDATE)
+            return null;
+        HashMap<Integer, ArrayList<Row>> rows = readRows(contentResolver, contacts);
+        ArrayList<Contact> remembered = new ArrayList<>();
+        for (Contact contact : contacts) {
+            if (ContactPhotos.remembers(contact.identifier))
+                remembered.add(contact);
+        }
+        HashMap<Integer, Long> lastUpdated = remembered.isEmpty() || !ContactChanges.isSupported()
+                ? new HashMap<Integer, Long>() : readLastUpdated(contentResolver, remembered);
+        for (Contact contact : contacts) {
+            ArrayList<Row> existing = rows.get(contact.identifier);
+            Row photo = existing != null ? find(existing, CommonDataKinds.Photo.CONTENT_ITEM_TYPE) : null;
+            if (photo != null && contact.avatar != null && contact.avatar.length > 0) {
+                photo.keep = hasPhoto(contentResolver, contact.identifier, photo, contact.avatar,
+                        lastUpdated.get(contact.identifier));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns whether the contact already has this photo: the photo last written to it, if it has
+     * not changed since, or the exact bytes of the thumbnail or display photo of its photo row
+     * @param lastUpdated when the contact last changed, or null if unknown
+     */
+    private static boolean hasPhoto(ContentResolver contentResolver, Integer contactId, Row photo, byte[] avatar,
+                                    Long lastUpdated) {
+        if (lastUpdated != null && ContactPhotos.isRemembered(contactId, avatar, lastUpdated))
+            return true;
+        Object thumbnail = photo.values.get(CommonDataKinds.Photo.PHOTO);
+        if (thumbnail instanceof byte[] && Arrays.equals((byte[]) thumbnail, avatar))
+            return true;
+        Object fileId = photo.values.get(CommonDataKinds.Photo.PHOTO_FILE_ID);
+        return fileId != null && ContactPhotos.isDisplayPhoto(contentResolver, Long.parseLong(fileId.toString()), avatar);
+    }
+
+    /**
+     * Reads the rows an update may write of each contact, with one query per {@link GetContactsTask#MAX_CONTACT_IDS} contacts
+     * @return the rows by contact identifier, without the contacts that have none
+     */
+    static HashMap<Integer, ArrayList<Row>> readRows(ContentResolver contentResolver, List<Contact> contacts) {
+        HashMap<Integer, ArrayList<Row>> rows = new HashMap<>();
+        ArrayList<String> ids = new ArrayList<>();
+        for (int i = 0; i < contacts.size(); i++) {
+            if (contacts.get(i).identifier != null) {
+                ids.add(String.valueOf(contacts.get(i).identifier));
+            }
+            if (ids.size() == GetContactsTask.MAX_CONTACT_IDS || (i == contacts.size() - 1 && !ids.isEmpty())) {
+                readRows(contentResolver, ids, rows);
+                ids.clear();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Reads when each contact last changed, with one query per {@link GetContactsTask#MAX_CONTACT_IDS} contacts
+     * @return the timestamps by contact identifier, without the contacts that no longer exist
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static HashMap<Integer, Long> readLastUpdated(ContentResolver contentResolver, List<Contact> contacts) {
+        HashMap<Integer, Long> lastUpdated = new HashMap<>();
+        ArrayList<String> ids = new ArrayList<>();
+        for (int i = 0; i < contacts.size(); i++) {
+            if (contacts.get(i).identifier != null) {
+                ids.add(String.valueOf(contacts.get(i).identifier));
+            }
+            if (ids.size() == GetContactsTask.MAX_CONTACT_IDS || (i == contacts.size() - 1 && !ids.isEmpty())) {
+                Cursor cursor = contentResolver.query(ContactsContract.Contacts.CONTENT_URI,
+                        new String[]{ContactsContract.Contacts._ID, ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP},
+                        ContactsContract.Contacts._ID + " IN (" + placeholders(ids.size()) + ")",
+                        ids.toArray(new String[0]), null);
+                while (cursor != null && cursor.moveToNext()) {
+                    lastUpdated.put(cursor.getInt(0), cursor.getLong(1));
+                }
+                if (cursor != null)
+                    cursor.close();
+                ids.clear();
+            }
+        }
+        return lastUpdated;
+    }
+
+    private static void readRows(ContentResolver contentResolver, List<String> ids, HashMap<Integer, ArrayList<Row>> rows) {
+        String selection = ContactsContract.Data.CONTACT_ID + " IN (" + placeholders(ids.size()) + ") AND "
+                + ContactsContract.Data.MIMETYPE + " IN (" + placeholders(ROW_MIMETYPES.length) + ")";
+        ArrayList<String> selectionArgs = new ArrayList<>(ids);
+        selectionArgs.addAll(Arrays.asList(ROW_MIMETYPES));
+
+        Cursor cursor = contentResolver.query(ContactsContract.Data.CONTENT_URI, ROW_PROJECTION, selection,
+                selectionArgs.toArray(new String[0]), ContactsContract.Data._ID + " ASC");
+        while (cursor != null && cursor.moveToNext()) {
+            Integer contactId = cursor.getInt(1);
+            ArrayList<Row> contactRows = rows.get(contactId);
+            if (contactRows == null) {
+                contactRows = new ArrayList<>();
+                rows.put(contactId, contactRows);
+            }
+            contactRows.add(new Row(cursor));
+        }
+        if (cursor != null)
+            cursor.close();
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+        return placeholders.toString();
+    }
+
+    /**
+     * A row of the {@link ContactsContract.Data} table, with the values of its columns
+     */
+    static class Row {
+        final long id;
+        final long rawContactId;
+        final String mimeType;
+        final HashMap<String, Object> values = new HashMap<>();
+        /** Whether this row read from the provider is left as it is, whatever the values wanted of it */
+        boolean keep;
+
+        Row(String mimeType) {
+            this.id = -1;
+            this.rawContactId = -1;
+            this.mimeType = mimeType;
+        }
+
+        /**
+         * Reads the current row of a cursor over the {@link #ROW_PROJECTION} columns
+         */
+        Row(Cursor cursor) {
+            this.id = cursor.getLong(0);
+            this.rawContactId = cursor.getLong(2);
+            this.mimeType = cursor.getString(3);
+            for (int i = 4; i < ROW_PROJECTION.length; i++) {
+                values.put(ROW_PROJECTION[i], cursor.getType(i) == Cursor.FIELD_TYPE_BLOB ? cursor.getBlob(i) : cursor.getString(i));
+            }
+        }
+
+        /**
+         * Returns whether this row read from the provider already has the values of the wanted row
+         */
+        boolean matches(Row wanted) {
+            if (keep)
+                return true;
+            for (Map.Entry<String, Object> value : wanted.values.entrySet()) {
+                Object expected = value.getValue();
+                Object actual = values.get(value.getKey());
+                if (expected == null || actual == null) {
+                    if (expected != actual)
+                        return false;
+                } else if (expected instanceof byte[]) {
+                    if (!(actual instanceof byte[]) || !Arrays.equals((byte[]) expected, (byte[]) actual))
+                        return false;
+                } else if (!String.valueOf(expected).equals(String.valueOf(actual))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static void withPhoneType(ContentProviderOperation.Builder op, Item phone) {
+        if (Item.stringToPhoneType(phone.label) == Phone.TYPE_CUSTOM) {
+            op.withValue(Phone.TYPE, CommonDataKinds.BaseTypes.TYPE_CUSTOM);
+            op.withValue(Phone.LABEL, phone.label);
+        } else
+            op.withValue(Phone.TYPE, Item.stringToPhoneType(phone.label));
+    }
+}
@@ -0,0 +1,130 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.provider.ContactsContract;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The orders contacts can be returned in. The provider sorts by display name and by identifier
+ * itself, with the sort keys it keeps for the device's language. The other orders are sorted in
+ * memory, comparing collation keys computed once per contact rather than lowercasing both names
+ * at every comparison.
+ */
+class ContactOrder {
+
+    static final String GIVEN_NAME = "givenName";
+    static final String FAMILY_NAME = "familyName";
+    /** By display name, "John Smith" */
+    static final String DISPLAY_NAME = "displayName";
+    /** By display name with the family name first, "Smith, John" */
+    static final String DISPLAY_NAME_ALTERNATIVE = "displayNameAlternative";
+    static final String IDENTIFIER = "identifier";
+
+    private ContactOrder() {}
+
+    /**
+     * Returns the order to sort the contacts in
+     * @param sortBy the order asked for, or null to use {@code orderByGivenName}
+     */
+    static String get(String sortBy, boolean orderByGivenName) {
+        if (sortBy != null) {
+            return sortBy;
+        }
+        return orderByGivenName ? GIVEN_NAME : null;
+    }
+
+    /**
+     * Returns the sort order of a query of the Data table returning the contacts in this order,
+     * each contact's rows together, or null if the provider cannot sort them so
+     */
+    static String getSortOrder(String order) {
+        if (order == null) {
+            return null;
+        }
+        switch (order) {
+            case DISPLAY_NAME:
+                return ContactsContract.Contacts.SORT_KEY_PRIMARY + ", " + ContactsContract.Data.CONTACT_ID;
+            case DISPLAY_NAME_ALTERNATIVE:
+                return ContactsContract.Contacts.SORT_KEY_ALTERNATIVE + ", " + ContactsContract.Data.CONTACT_ID;
+            case IDENTIFIER:
+                return ContactsContract.Data.CONTACT_ID;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Sorts the contacts in memory. The sort is stable, so contacts comparing equal keep their order.
+     */
+    static void sort(List<Contact> contacts, String order) {
+        if (order == null || contacts.size() < 2) {
+            return;
+        }
+        if (IDENTIFIER.equals(order)) {
+            Contact[] sorted = contacts.toArray(new Contact[0]);
+            Arrays.sort(sorted, new Comparator<Contact>() {
+                @Override
+                public int compare(Contact a, Contact b) {
+                    return a.identifier.compareTo(b.identifier);
+                }
+            });
+            for (int i = 0; i < sorted.length; i++) {
+                contacts.set(i, sorted[i]);
+            }
+            return;
+        }
+
+        // Case is ignored, as it was by Contact.compareTo, but not accents.
+        Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.SECONDARY);
+        Keyed[] keyed = new Keyed[contacts.size()];
+        for (int i = 0; i < keyed.length; i++) {
+            keyed[i] = new Keyed(contacts.get(i), getKeys(collator, contacts.get(i), order));
+        }
+        Arrays.sort(keyed);
+        for (int i = 0; i < keyed.length; i++) {
+            contacts.set(i, keyed[i].contact);
+        }
+    }
+
+    private static CollationKey[] getKeys(Collator collator, Contact contact, String order) {
+        switch (order) {
+            case FAMILY_NAME:
+            case DISPLAY_NAME_ALTERNATIVE:
+                return new CollationKey[]{getKey(collator, contact.familyName), getKey(collator, contact.givenName)};
+            case DISPLAY_NAME:
+                return new CollationKey[]{getKey(collator, contact.displayName)};
+            default:
+                return new CollationKey[]{getKey(collator, contact.givenName)};
+        }
+    }
+
+    private static CollationKey getKey(Collator collator, String name) {
+        return collator.getCollationKey(name == null ? "" : name);
+    }
+
+    private static class Keyed implements Comparable<Keyed> {
+        final Contact contact;
+        final CollationKey[] keys;
+
+        Keyed(Contact contact, CollationKey[] keys) {
+            this.contact = contact;
+            this.keys = keys;
+        }
+
+        @Override
+        public int compareTo(Keyed other) {
+            for (int i = 0; i < keys.length; i++) {
+                int result = keys[i].compareTo(other.keys[i]);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        }
+    }
+}
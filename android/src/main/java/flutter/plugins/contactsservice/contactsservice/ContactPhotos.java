@@ -0,0 +1,256 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the photos of the contacts outside of the batches of operations. A batch crosses
+ * Binder in a single transaction, which a few multi-megabyte photos are enough to overflow,
+ * so the batch only carries a thumbnail of a large photo, and the photo itself is then
+ * streamed to the display photo of the raw contact, chunk by chunk, through a pipe.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+class ContactPhotos {
+
+    /**
+     * Largest photo written as is in a batch. Well above a typical thumbnail, and small enough
+     * for the contacts of a full batch to fit in a transaction.
+     */
+    static final int MAX_INLINE_BYTES = 8 * 1024;
+
+    /** Size of the thumbnails of the larger photos, that of the thumbnails of the provider */
+    static final int THUMBNAIL_SIZE = 96;
+
+    /** JPEG qualities a thumbnail is tried at, until it is no larger than {@link #MAX_INLINE_BYTES} */
+    private static final int[] THUMBNAIL_QUALITIES = {90, 75, 60, 45, 30};
+
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    private static final String LOG_TAG = "flutter_contacts";
+
+    /** Contacts whose photos are remembered, the ones most recently written */
+    private static final int MAX_REMEMBERED_CONTACTS = 2048;
+
+    /** Fingerprint of the photo last written to each contact */
+    private static final LinkedHashMap<Integer, Fingerprint> fingerprints =
+            new LinkedHashMap<Integer, Fingerprint>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Fingerprint> eldest) {
+                    return size() > MAX_REMEMBERED_CONTACTS;
+                }
+            };
+
+    private ContactPhotos() {}
+
+    /**
+     * Remembers the photo just written to the contact, in place of the one written before. The
+     * provider stores a photo resized, so the photo a caller gives back unchanged seldom has the
+     * bytes the provider stores, but it has the fingerprint remembered here.
+     * @param lastUpdated when the contact last changed, after the photo was written
+     */
+    static void remember(Integer contactId, byte[] photo, long lastUpdated) {
+        if (contactId == null) {
+            return;
+        }
+        if (photo == null || photo.length == 0) {
+            forget(contactId);
+            return;
+        }
+        Fingerprint fingerprint = new Fingerprint(photo, lastUpdated);
+        synchronized (fingerprints) {
+            fingerprints.put(contactId, fingerprint);
+        }
+    }
+
+    /**
+     * Returns whether a photo is remembered for the contact
+     */
+    static boolean remembers(Integer contactId) {
+        synchronized (fingerprints) {
+            return fingerprints.containsKey(contactId);
+        }
+    }
+
+    /**
+     * Returns whether the photo is the one last written to the contact, and the contact has not
+     * changed since. Once it has, through this plugin or any other app, the remembered photo is
+     * forgotten, as it may no longer be the photo of the contact. The photo is only hashed if it
+     * has the length of the remembered one.
+     * @param lastUpdated when the contact last changed
+     */
+    static boolean isRemembered(Integer contactId, byte[] photo, long lastUpdated) {
+        Fingerprint remembered;
+        synchronized (fingerprints) {
+            remembered = fingerprints.get(contactId);
+            if (remembered != null && remembered.lastUpdated != lastUpdated) {
+                fingerprints.remove(contactId);
+                return false;
+            }
+        }
+        return remembered != null && remembered.length == photo.length
+                && Arrays.equals(remembered.digest, digest(photo));
+    }
+
+    static void forget(Integer contactId) {
+        synchronized (fingerprints) {
+            fingerprints.remove(contactId);
+        }
+    }
+
+    /**
+     * Returns whether the photo is too large to be written in a batch, and has to be streamed
+     * to the display photo of the contact
+     */
+    static boolean isLarge(byte[] photo) {
+        return photo != null && photo.length > MAX_INLINE_BYTES;
+    }
+
+    /**
+     * Returns the photo to write in a batch: the photo itself if small, or else a JPEG thumbnail
+     * of it, {@link #THUMBNAIL_SIZE} pixels on its longest side and at the highest quality that
+     * keeps it within {@link #MAX_INLINE_BYTES}
+     * @return the photo, or null if it is large and no such thumbnail could be made of it
+     */
+    static byte[] inline(byte[] photo) {
+        if (!isLarge(photo)) {
+            return photo;
+        }
+        Bitmap bitmap = ContactsServicePlugin.decodePhoto(photo, photo.length, THUMBNAIL_SIZE);
+        if (bitmap == null) {
+            Log.w(LOG_TAG, "Failed to decode a photo of " + photo.length + " bytes");
+            return null;
+        }
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(MAX_INLINE_BYTES);
+            for (int quality : THUMBNAIL_QUALITIES) {
+                stream.reset();
+                bitmap.compress(Bitmap.CompressFormat.JPEG, quality, stream);
+                if (stream.size() <= MAX_INLINE_BYTES) {
+                    return stream.toByteArray();
+                }
+            }
+        } finally {
+            bitmap.recycle();
+        }
+        Log.w(LOG_TAG, "Failed to make a thumbnail of at most " + MAX_INLINE_BYTES + " bytes of a photo");
+        return null;
+    }
+
+    /**
+     * Streams the photo to the display photo of the raw contact, which the provider stores as
+     * a file and from which it makes the thumbnail of the contact
+     * @return whether the photo was written
+     */
+    static boolean writeDisplayPhoto(ContentResolver contentResolver, long rawContactId, byte[] photo) {
+        Uri uri = Uri.withAppendedPath(ContentUris.withAppendedId(ContactsContract.RawContacts.CONTENT_URI, rawContactId),
+                ContactsContract.RawContacts.DisplayPhoto.CONTENT_DIRECTORY);
+        long start = PerformanceStats.begin(PerformanceStats.PHOTO_WRITE);
+        try {
+            AssetFileDescriptor descriptor = contentResolver.openAssetFileDescriptor(uri, "rw");
+            if (descriptor == null) {
+                return false;
+            }
+            try {
+                OutputStream output = descriptor.createOutputStream();
+                try {
+                    for (int offset = 0; offset < photo.length; offset += CHUNK_BYTES) {
+                        output.write(photo, offset, Math.min(CHUNK_BYTES, photo.length - offset));
+                    }
+                } finally {
+                    output.close();
+                }
+            } finally {
+                descriptor.close();
+            }
+            PerformanceStats.count(PerformanceStats.BYTES, photo.length);
+            return true;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to write the display photo of raw contact " + rawContactId, e);
+            return false;
+        } finally {
+            PerformanceStats.end(PerformanceStats.PHOTO_WRITE, start);
+        }
+    }
+
+    /**
+     * Returns whether the display photo stored in the given file holds exactly these bytes,
+     * as it does when the photo was read raw and is written back unchanged. Only the length
+     * is read when it differs, and the photo is compared chunk by chunk otherwise.
+     */
+    static boolean isDisplayPhoto(ContentResolver contentResolver, long photoFileId, byte[] photo) {
+        Uri uri = ContentUris.withAppendedId(ContactsContract.DisplayPhoto.CONTENT_URI, photoFileId);
+        try {
+            AssetFileDescriptor descriptor = contentResolver.openAssetFileDescriptor(uri, "r");
+            if (descriptor == null) {
+                return false;
+            }
+            try {
+                long length = descriptor.getLength();
+                if (length != AssetFileDescriptor.UNKNOWN_LENGTH && length != photo.length) {
+                    return false;
+                }
+                InputStream input = descriptor.createInputStream();
+                byte[] chunk = new byte[CHUNK_BYTES];
+                int offset = 0;
+                int read;
+                while ((read = input.read(chunk)) != -1) {
+                    if (offset + read > photo.length) {
+                        return false;
+                    }
+                    for (int i = 0; i < read; i++) {
+                        if (chunk[i] != photo[offset + i]) {
+                            return false;
+                        }
+                    }
+                    offset += read;
+                }
+                return offset == photo.length;
+            } finally {
+                descriptor.close();
+            }
+        } catch (IOException e) {
+            // Taken as changed, the photo is written again.
+            return false;
+        }
+    }
+
+    private static byte[] digest(byte[] photo) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(photo);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The length and the digest of a photo, and when the contact last changed after it was written
+     */
+    private static class Fingerprint {
+        final int length;
+        final byte[] digest;
+        final long lastUpdated;
+
+        Fingerprint(byte[] photo, long lastUpdated) {
+            length = photo.length;
+            digest = digest(photo);
+            this.lastUpdated = lastUpdated;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeMap;
+
+/**
+ * Keeps the aggregated contacts in memory and in app-private storage. Instead of reading the
+ * whole address book on every call, only the contacts the provider reports as changed since
+ * the last call are read again.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class ContactsCache {
+
+    private static final String LOG_TAG = "flutter_contacts";
+    private static final int VERSION = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** Above this many changes, reading every contact again is cheaper than reading the changed ones */
+    private static final int MAX_CHANGES = 500;
+
+    private final File file;
+    /** By identifier, the order in which a read of the provider returns them */
+    private TreeMap<Integer, Contact> contacts;
+    /** Time of the latest change read, or 0 if there were no contacts to take it from */
+    private long timestamp;
+    /** Identifier of the last contact changed at {@link #timestamp}, see {@link ContactChanges} */
+    private long contactId;
+    /** Built on the first search, then kept up to date along with the contacts */
+    private ContactsSearchIndex index;
+    /**
+     * Whether the contacts may have changed since they were last read. Without an observer,
+     * they always may have.
+     */
+    private volatile boolean stale = true;
+    private ContentResolver contentResolver;
+    private ContentObserver observer;
+
+    ContactsCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates a cache that only looks for changes once the provider has reported some
+     */
+    ContactsCache(File file, ContentResolver contentResolver) {
+        this(file);
+        this.contentResolver = contentResolver;
+        this.observer = new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                stale = true;
+            }
+        };
+        contentResolver.registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, observer);
+    }
+
+    /**
+     * Makes the next call look for changes. The observer is told of a write only once the
+     * provider notifies it, so a write made by the plugin must not wait for it.
+     */
+    void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * Stops observing the provider. The cache keeps working, looking for changes on every call.
+     */
+    synchronized void close() {
+        if (observer != null) {
+            contentResolver.unregisterContentObserver(observer);
+            observer = null;
+        }
+    }
+
+    /**
+     * Returns all the contacts, reading only the ones that changed since the last call
+     * @param task the task reading the contacts, with all fields selected and without thumbnails
+     * @return the contacts, or null if the thread was interrupted while reading them
+     */
+    synchronized ArrayList<Contact> getContacts(GetContactsTask task) {
+        if (!ContactChanges.isSupported()) {
+            return task.getContactsFrom(task.getCursor(null));
+        }
+
+        if (!refresh(task)) {
+            return null;
+        }
+        return copy(contacts.values());
+    }
+
+    /**
+     * Returns the contacts matching the query, see {@link ContactsSearchIndex}. Unless the
+     * provider reported changes, no query is made to it.
+     * @param task the task reading the contacts, with all fields selected
+     * @return the contacts, or null if the thread was interrupted while reading them
+     */
+    synchronized ArrayList<Contact> search(GetContactsTask task, String query) {
+        if (!refresh(task)) {
+            return null;
+        }
+        if (index == null) {
+            index = new ContactsSearchIndex(contacts.values());
+        }
+        // In identifier order, as the other calls return them, rather than that of the index.
+        ArrayList<Integer> identifiers = new ArrayList<>(index.search(query));
+        Collections.sort(identifiers);
+        ArrayList<Contact> result = new ArrayList<>(identifiers.size());
+        for (Integer identifier : identifiers) {
+            result.add(contacts.get(identifier));
+        }
+        return copy(result);
+    }
+
+    synchronized void clear() {
+        contacts = null;
+        index = null;
+        if (file.exists() && !file.delete()) {
+            Log.w(LOG_TAG, "Could not delete " + file);
+        }
+    }
+
+    /**
+     * Reads the contacts that changed since the last call, if the provider may have changed
+     * @return false if the thread was interrupted, in which case the cache is left as it was
+     */
+    private boolean refresh(GetContactsTask task) {
+        if (contacts != null && observer != null && !stale) {
+            return true;
+        }
+        // Cleared first, so that a change made while reading is picked up next time.
+        stale = false;
+        if (contacts == null) {
+            read();
+        }
+        // Without a timestamp, every contact is read as changed, which is still right.
+        boolean expired = timestamp != 0 && ContactChanges.isExpired(timestamp);
+        if (contacts == null || expired || !update(task)) {
+            reload(task);
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            stale = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The task sets the avatars on the contacts it returns, which must not end up in the cache.
+     */
+    private static ArrayList<Contact> copy(Collection<Contact> contacts) {
+        ArrayList<Contact> result = new ArrayList<>(contacts.size());
+        for (Contact contact : contacts) {
+            result.add(contact.copy());
+        }
+        return result;
+    }
+
+    private void reload(GetContactsTask task) {
+        // Read the time first, so that changes made during the scan are picked up next time.
+        ContactChanges latest = ContactChanges.latest(task.contentResolver);
+        final TreeMap<Integer, Contact> read = new TreeMap<>();
+        task.readContacts(task.getCursor(null), new GetContactsTask.ContactSink() {
+            @Override
+            public void put(Contact contact) {
+                read.put(contact.identifier, contact);
+            }
+        });
+        // An interrupted read misses contacts, which must not be taken as deleted.
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        timestamp = latest.timestamp;
+        contactId = latest.contactId;
+        contacts = read;
+        index = null;
+        write();
+    }
+
+    /**
+     * Applies the changes made since the last call
+     * @return false if there are too many of them and every contact should be read again
+     */
+    private boolean update(GetContactsTask task) {
+        ContactChanges changes = ContactChanges.since(task.contentResolver, timestamp, contactId);
+        if (changes.updatedIds.size() + changes.deletedIds.size() > MAX_CHANGES) {
+            return false;
+        }
+        if (changes.updatedIds.isEmpty() && changes.deletedIds.isEmpty()) {
+            return true;
+        }
+
+        ArrayList<Contact> updated = changes.updatedIds.isEmpty() ? new ArrayList<Contact>()
+                : task.getContactsFrom(task.getCursorForContacts(changes.updatedIds));
+        if (Thread.currentThread().isInterrupted()) {
+            // Left as it was, the caller gives up when it sees the interruption.
+            return true;
+        }
+
+        for (String id : changes.deletedIds) {
+            remove(Integer.valueOf(id));
+        }
+        // A contact left without any row we read is dropped, as it would be by a full read.
+        for (String id : changes.updatedIds) {
+            remove(Integer.valueOf(id));
+        }
+        for (Contact contact : updated) {
+            contacts.put(contact.identifier, contact);
+            if (index != null) {
+                index.put(contact);
+            }
+        }
+        timestamp = changes.timestamp;
+        contactId = changes.contactId;
+        write();
+        return true;
+    }
+
+    private void remove(Integer identifier) {
+        contacts.remove(identifier);
+        if (index != null) {
+            index.remove(identifier);
+        }
+    }
+
+    private void read() {
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            long timestamp = in.readLong();
+            long contactId = in.readLong();
+            int count = in.readInt();
+            TreeMap<Integer, Contact> contacts = new TreeMap<>();
+            for (int i = 0; i < count; i++) {
+                Contact contact = readContact(in);
+                contacts.put(contact.identifier, contact);
+            }
+            this.timestamp = timestamp;
+            this.contactId = contactId;
+            this.contacts = contacts;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not read the contacts cache", e);
+        } finally {
+            close(in);
+        }
+    }
+
+    private void write() {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(VERSION);
+            out.writeLong(timestamp);
+            out.writeLong(contactId);
+            out.writeInt(contacts.size());
+            for (Contact contact : contacts.values()) {
+                writeContact(out, contact);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                Log.w(LOG_TAG, "Could not write the contacts cache to " + file);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not write the contacts cache", e);
+        } finally {
+            close(out);
+        }
+    }
+
+    static void writeContact(DataOutputStream out, Contact contact) throws IOException {
+        out.writeInt(contact.identifier);
+        writeString(out, contact.displayName);
+        writeString(out, contact.givenName);
+        writeString(out, contact.middleName);
+        writeString(out, contact.familyName);
+        writeString(out, contact.prefix);
+        writeString(out, contact.suffix);
+        writeString(out, contact.company);
+        writeString(out, contact.jobTitle);
+        writeString(out, contact.note);
+        writeString(out, contact.birthday);
+        writeItems(out, contact.phones);
+        writeItems(out, contact.emails);
+        out.writeInt(contact.postalAddresses.size());
+        for (PostalAddress address : contact.postalAddresses) {
+            writeString(out, address.label);
+            writeString(out, address.street);
+            writeString(out, address.city);
+            writeString(out, address.postcode);
+            writeString(out, address.region);
+            writeString(out, address.country);
+        }
+    }
+
+    static Contact readContact(DataInputStream in) throws IOException {
+        Contact contact = new Contact(in.readInt());
+        contact.displayName = readString(in);
+        contact.givenName = readString(in);
+        contact.middleName = readString(in);
+        contact.familyName = readString(in);
+        contact.prefix = readString(in);
+        contact.suffix = readString(in);
+        contact.company = readString(in);
+        contact.jobTitle = readString(in);
+        contact.note = readString(in);
+        contact.birthday = readString(in);
+        readItems(in, contact.phones);
+        readItems(in, contact.emails);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            contact.postalAddresses.add(new PostalAddress(readString(in), readString(in), readString(in),
+                    readString(in), readString(in), readString(in)));
+        }
+        return contact;
+    }
+
+    private static void writeItems(DataOutputStream out, ArrayList<Item> items) throws IOException {
+        out.writeInt(items.size());
+        for (Item item : items) {
+            writeString(out, item.label);
+            writeString(out, item.value);
+        }
+    }
+
+    private static void readItems(DataInputStream in, ArrayList<Item> items) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            items.add(new Item(readString(in), readString(in)));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, e.getMessage());
+        }
+    }
+}
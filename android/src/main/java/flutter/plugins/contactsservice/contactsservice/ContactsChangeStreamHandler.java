@@ -0,0 +1,127 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Observes the contacts while the Dart side listens to the changes stream. Bursts of
+ * notifications are coalesced into a single event, which carries the identifiers of the
+ * updated and deleted contacts where the provider records them.
+ */
+class ContactsChangeStreamHandler implements EventChannel.StreamHandler {
+
+    /** How long to wait for more notifications before sending an event */
+    private static final long DEBOUNCE_MILLIS = 500;
+    /** How long a notification can wait for the event, however many more keep arriving */
+    private static final long MAX_WAIT_MILLIS = 2000;
+
+    private final ContentResolver contentResolver;
+    private final Executor executor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private EventChannel.EventSink events;
+    /**
+     * Watermark of the latest change already reported, taken again when listening starts. The
+     * changes are only read once there is one, or else every contact would be reported.
+     */
+    private ContactChanges watermark;
+    /** Uptime of the first notification not yet sent, or 0 if none is pending */
+    private long pendingSince;
+
+    private final ContentObserver observer = new ContentObserver(handler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            long now = SystemClock.uptimeMillis();
+            if (pendingSince == 0) {
+                pendingSince = now;
+            }
+            // Continuous writes would otherwise postpone the event for as long as they last.
+            long delay = Math.max(0, Math.min(DEBOUNCE_MILLIS, pendingSince + MAX_WAIT_MILLIS - now));
+            handler.removeCallbacks(readChanges);
+            handler.postDelayed(readChanges, delay);
+        }
+    };
+
+    private final Runnable readChanges = new Runnable() {
+        @Override
+        public void run() {
+            pendingSince = 0;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final HashMap<String, Object> event = getChanges();
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (events != null) {
+                                events.success(event);
+                            }
+                        }
+                    });
+                }
+            });
+        }
+    };
+
+    ContactsChangeStreamHandler(ContentResolver contentResolver, Executor executor) {
+        this.contentResolver = contentResolver;
+        this.executor = executor;
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        this.events = events;
+        if (ContactChanges.isSupported()) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (ContactsChangeStreamHandler.this) {
+                        watermark = ContactChanges.latest(contentResolver);
+                    }
+                }
+            });
+        }
+        contentResolver.registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, observer);
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        contentResolver.unregisterContentObserver(observer);
+        handler.removeCallbacks(readChanges);
+        pendingSince = 0;
+        events = null;
+    }
+
+    private synchronized HashMap<String, Object> getChanges() {
+        ArrayList<Integer> updated = new ArrayList<>();
+        ArrayList<Integer> deleted = new ArrayList<>();
+        if (ContactChanges.isSupported()) {
+            if (watermark == null) {
+                // Read before the task queued to take the watermark when listening started.
+                watermark = ContactChanges.latest(contentResolver);
+            }
+            ContactChanges changes = ContactChanges.since(contentResolver, watermark.timestamp, watermark.contactId);
+            for (String id : changes.updatedIds) {
+                updated.add(Integer.valueOf(id));
+            }
+            for (String id : changes.deletedIds) {
+                deleted.add(Integer.valueOf(id));
+            }
+            watermark = changes;
+        }
+
+        HashMap<String, Object> event = new HashMap<>();
+        event.put("updated", updated);
+        event.put("deleted", deleted);
+        return event;
+    }
+}
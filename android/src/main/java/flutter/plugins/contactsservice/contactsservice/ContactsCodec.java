@@ -0,0 +1,169 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encodes contacts into a single byte array, decoded on the Dart side by {@code _ContactsDecoder}.
+ * Unlike {@link Contact#toMap}, it allocates no map per contact, phone, email or address, does not
+ * repeat the name of every field for every record, and writes each distinct string only once.
+ * <p>
+ * Layout of version {@link #VERSION}, where numbers are unsigned LEB128 varints and strings are
+ * written as their index in the string table plus one, or 0 for null:
+ * <pre>
+ * version (byte) | fields (byte, {@code FIELD_*} bits)
+ * string count | (byte length | UTF-8 bytes) per string
+ * contact count | per contact:
+ *   identifier | displayName | avatar (byte length plus one, or 0 for null, then the bytes)
+ *   [givenName middleName familyName prefix suffix] [company jobTitle] [note] [birthday]
+ *   [email count | (label value) per email] [phone count | (label value) per phone]
+ *   [address count | (label street city postcode region country) per address]
+ * </pre>
+ * The bracketed groups are only written when their bit is set in the fields byte.
+ */
+class ContactsCodec {
+
+    static final int VERSION = 1;
+
+    static final int FIELD_NAME = 1;
+    static final int FIELD_ORGANIZATION = 1 << 1;
+    static final int FIELD_NOTE = 1 << 2;
+    static final int FIELD_BIRTHDAY = 1 << 3;
+    static final int FIELD_EMAILS = 1 << 4;
+    static final int FIELD_PHONES = 1 << 5;
+    static final int FIELD_POSTAL_ADDRESSES = 1 << 6;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final HashMap<String, Integer> stringIndexes = new HashMap<>();
+    private final ArrayList<String> strings = new ArrayList<>();
+
+    private ContactsCodec() {}
+
+    /**
+     * @param fields the fields to encode, or null for all of them, see {@link Contact#toMap(Set)}
+     */
+    static byte[] encode(List<Contact> contacts, Set<String> fields) {
+        return new ContactsCodec().encodeContacts(contacts, getFieldBits(fields));
+    }
+
+    static int getFieldBits(Set<String> fields) {
+        if (fields == null) {
+            return FIELD_NAME | FIELD_ORGANIZATION | FIELD_NOTE | FIELD_BIRTHDAY | FIELD_EMAILS | FIELD_PHONES | FIELD_POSTAL_ADDRESSES;
+        }
+        int bits = 0;
+        bits |= fields.contains(Contact.FIELD_NAME) ? FIELD_NAME : 0;
+        bits |= fields.contains(Contact.FIELD_ORGANIZATION) ? FIELD_ORGANIZATION : 0;
+        bits |= fields.contains(Contact.FIELD_NOTE) ? FIELD_NOTE : 0;
+        bits |= fields.contains(Contact.FIELD_BIRTHDAY) ? FIELD_BIRTHDAY : 0;
+        bits |= fields.contains(Contact.FIELD_EMAILS) ? FIELD_EMAILS : 0;
+        bits |= fields.contains(Contact.FIELD_PHONES) ? FIELD_PHONES : 0;
+        bits |= fields.contains(Contact.FIELD_POSTAL_ADDRESSES) ? FIELD_POSTAL_ADDRESSES : 0;
+        return bits;
+    }
+
+    private byte[] encodeContacts(List<Contact> contacts, int fields) {
+        for (Contact contact : contacts) {
+            writeContact(contact, fields);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + strings.size() * 16 + 16);
+        out.write(VERSION);
+        out.write(fields);
+        writeVarint(out, strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        writeVarint(out, contacts.size());
+        // Copies the body without the extra array toByteArray() would allocate.
+        try {
+            body.writeTo(out);
+        } catch (java.io.IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private void writeContact(Contact contact, int fields) {
+        writeVarint(body, contact.identifier);
+        writeString(contact.displayName);
+        if (contact.avatar == null) {
+            writeVarint(body, 0);
+        } else {
+            writeVarint(body, contact.avatar.length + 1);
+            body.write(contact.avatar, 0, contact.avatar.length);
+        }
+
+        if ((fields & FIELD_NAME) != 0) {
+            writeString(contact.givenName);
+            writeString(contact.middleName);
+            writeString(contact.familyName);
+            writeString(contact.prefix);
+            writeString(contact.suffix);
+        }
+        if ((fields & FIELD_ORGANIZATION) != 0) {
+            writeString(contact.company);
+            writeString(contact.jobTitle);
+        }
+        if ((fields & FIELD_NOTE) != 0) {
+            writeString(contact.note);
+        }
+        if ((fields & FIELD_BIRTHDAY) != 0) {
+            writeString(contact.birthday);
+        }
+        if ((fields & FIELD_EMAILS) != 0) {
+            writeItems(contact.emails);
+        }
+        if ((fields & FIELD_PHONES) != 0) {
+            writeItems(contact.phones);
+        }
+        if ((fields & FIELD_POSTAL_ADDRESSES) != 0) {
+            writeVarint(body, contact.postalAddresses.size());
+            for (PostalAddress address : contact.postalAddresses) {
+                writeString(address.label);
+                writeString(address.street);
+                writeString(address.city);
+                writeString(address.postcode);
+                writeString(address.region);
+                writeString(address.country);
+            }
+        }
+    }
+
+    private void writeItems(List<Item> items) {
+        writeVarint(body, items.size());
+        for (Item item : items) {
+            writeString(item.label);
+            writeString(item.value);
+        }
+    }
+
+    private void writeString(String value) {
+        if (value == null) {
+            writeVarint(body, 0);
+            return;
+        }
+        Integer index = stringIndexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            stringIndexes.put(value, index);
+        }
+        writeVarint(body, index + 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,149 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import java.text.Normalizer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Finds contacts by the beginning of the words of their names, company and emails, and by any
+ * part of their phone numbers. Words are kept sorted, so the words starting with a prefix are
+ * found with a single range lookup. Contacts can be added and removed one at a time as they
+ * change, without building the index again.
+ * <p>
+ * A query matches the contacts having, for each of its words, a word starting with it: "jo sm"
+ * matches John Smith, and "555 12" matches a contact with the number +1 555 123 4567.
+ */
+class ContactsSearchIndex {
+
+    private static final Pattern WORD_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_DIGITS = Pattern.compile("[^0-9]+");
+
+    /** Contacts having each word */
+    private final TreeMap<String, HashSet<Integer>> contactsByWord = new TreeMap<>();
+    /** Words of each contact, to remove them when the contact changes */
+    private final HashMap<Integer, Set<String>> wordsByContact = new HashMap<>();
+
+    ContactsSearchIndex(Collection<Contact> contacts) {
+        for (Contact contact : contacts) {
+            put(contact);
+        }
+    }
+
+    /**
+     * Adds the contact, replacing the previous version of it if any
+     */
+    void put(Contact contact) {
+        remove(contact.identifier);
+        Set<String> words = getWords(contact);
+        wordsByContact.put(contact.identifier, words);
+        for (String word : words) {
+            HashSet<Integer> contacts = contactsByWord.get(word);
+            if (contacts == null) {
+                contacts = new HashSet<>(2);
+                contactsByWord.put(word, contacts);
+            }
+            contacts.add(contact.identifier);
+        }
+    }
+
+    void remove(Integer identifier) {
+        Set<String> words = wordsByContact.remove(identifier);
+        if (words == null) {
+            return;
+        }
+        for (String word : words) {
+            HashSet<Integer> contacts = contactsByWord.get(word);
+            contacts.remove(identifier);
+            if (contacts.isEmpty()) {
+                contactsByWord.remove(word);
+            }
+        }
+    }
+
+    /**
+     * Returns the identifiers of the contacts matching every word of the query, or of every
+     * contact if the query has no word
+     */
+    Set<Integer> search(String query) {
+        String[] queryWords = split(normalize(query));
+        Set<Integer> result = null;
+        for (String queryWord : queryWords) {
+            if (queryWord.isEmpty()) {
+                continue;
+            }
+            HashSet<Integer> matches = new HashSet<>();
+            for (Map.Entry<String, HashSet<Integer>> entry
+                    : contactsByWord.subMap(queryWord, queryWord + Character.MAX_VALUE).entrySet()) {
+                if (result == null) {
+                    matches.addAll(entry.getValue());
+                } else {
+                    // Only the contacts matching the previous words can match all of them.
+                    for (Integer identifier : entry.getValue()) {
+                        if (result.contains(identifier)) {
+                            matches.add(identifier);
+                        }
+                    }
+                }
+            }
+            result = matches;
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result != null ? result : new HashSet<>(wordsByContact.keySet());
+    }
+
+    static Set<String> getWords(Contact contact) {
+        LinkedHashSet<String> words = new LinkedHashSet<>();
+        addWords(words, contact.displayName);
+        addWords(words, contact.givenName);
+        addWords(words, contact.middleName);
+        addWords(words, contact.familyName);
+        addWords(words, contact.company);
+        for (Item email : contact.emails) {
+            addWords(words, email.value);
+        }
+        for (Item phone : contact.phones) {
+            if (phone.value == null) {
+                continue;
+            }
+            // Every suffix of the digits, so that a query matches any part of the number.
+            String digits = NON_DIGITS.matcher(phone.value).replaceAll("");
+            for (int i = 0; i < digits.length(); i++) {
+                words.add(digits.substring(i));
+            }
+        }
+        return words;
+    }
+
+    private static void addWords(Set<String> words, String text) {
+        if (text == null) {
+            return;
+        }
+        for (String word : split(normalize(text))) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+    }
+
+    private static String[] split(String text) {
+        return WORD_SEPARATORS.split(text);
+    }
+
+    /**
+     * Returns the text in lower case and without accents, so that queries typed without accents match
+     */
+    private static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+}
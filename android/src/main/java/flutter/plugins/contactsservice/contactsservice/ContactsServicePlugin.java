@@ -1,16 +1,9 @@
 package flutter.plugins.contactsservice.contactsservice;
 
-import static android.provider.ContactsContract.CommonDataKinds;
-import static android.provider.ContactsContract.CommonDataKinds.Email;
-import static android.provider.ContactsContract.CommonDataKinds.Organization;
-import static android.provider.ContactsContract.CommonDataKinds.Phone;
-import static android.provider.ContactsContract.CommonDataKinds.StructuredName;
-import static android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
-
 import android.annotation.TargetApi;
-import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -21,77 +14,138 @@ import android.provider.BaseColumns;
 import android.provider.ContactsContract;
 import android.text.TextUtils;
 import android.util.Log;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
+import io.flutter.plugin.common.PluginRegistry;
 import io.flutter.plugin.common.PluginRegistry.Registrar;
+import io.flutter.view.FlutterNativeView;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 @TargetApi(Build.VERSION_CODES.ECLAIR)
 public class ContactsServicePlugin implements MethodCallHandler {
 
-  ContactsServicePlugin(ContentResolver contentResolver){
-    this.contentResolver = contentResolver;
+  ContactsServicePlugin(Context context){
+    this.contentResolver = context.getContentResolver();
+    this.cache = new ContactsCache(new File(context.getCacheDir(), "contacts_service.cache"), contentResolver);
+    this.avatarCache = new AvatarCache(contentResolver, AVATAR_CACHE_BYTES);
   }
 
   private static final String LOG_TAG = "flutter_contacts";
   private final ContentResolver contentResolver;
-  private final ExecutorService executor =
-      new ThreadPoolExecutor(0, 10, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1000));
+  private final ContactsCache cache;
+  private final AvatarCache avatarCache;
+  /** Memory given to the avatars returned by getAvatar, a few hundred typical thumbnails */
+  private static final int AVATAR_CACHE_BYTES = 8 * 1024 * 1024;
+  private final TaskScheduler scheduler = new TaskScheduler();
+  /**
+   * Runs the writes one at a time, in the order they were made, so that two writes to the same
+   * contact cannot interleave. They do not wait behind the reads, which run on {@link #scheduler}.
+   */
+  private final ExecutorService writeExecutor =
+      new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
 
   public static void registerWith(Registrar registrar) {
     final MethodChannel channel = new MethodChannel(registrar.messenger(), "github.com/clovisnicolas/flutter_contacts");
-    channel.setMethodCallHandler(new ContactsServicePlugin(registrar.context().getContentResolver()));
+    final ContactsServicePlugin plugin = new ContactsServicePlugin(registrar.context());
+    channel.setMethodCallHandler(plugin);
+    registrar.addViewDestroyListener(new PluginRegistry.ViewDestroyListener() {
+      @Override
+      public boolean onViewDestroy(FlutterNativeView view) {
+        plugin.cache.close();
+        plugin.avatarCache.close();
+        return false;
+      }
+    });
+
+    final EventChannel contactsChannel = new EventChannel(registrar.messenger(), "github.com/clovisnicolas/flutter_contacts/contacts");
+    contactsChannel.setStreamHandler(new ContactsStreamHandler(plugin.contentResolver, plugin.scheduler.executor(TaskScheduler.PRIORITY_INTERACTIVE)));
+
+    final EventChannel changesChannel = new EventChannel(registrar.messenger(), "github.com/clovisnicolas/flutter_contacts/changes");
+    changesChannel.setStreamHandler(new ContactsChangeStreamHandler(plugin.contentResolver, plugin.scheduler.executor(TaskScheduler.PRIORITY_BACKGROUND)));
   }
 
   @Override
   public void onMethodCall(MethodCall call, Result result) {
     switch(call.method){
       case "getContacts": {
-        this.getContacts((String)call.argument("query"), (boolean)call.argument("withThumbnails"), (boolean)call.argument("photoHighResolution"), (boolean)call.argument("orderByGivenName"), result);
+        this.getContacts((String)call.argument("query"), (boolean)call.argument("withThumbnails"), (boolean)call.argument("photoHighResolution"), getOrder(call), getFields(call), (boolean)call.argument("useCache"), (boolean)call.argument("compact"), (boolean)call.argument("parallel"), (Integer)call.argument("requestId"), result);
+        break;
+      } case "getContactsPage": {
+        this.getContactsPage((String)call.argument("query"), (Integer)call.argument("afterIdentifier"), (int)call.argument("limit"), (boolean)call.argument("withThumbnails"), (boolean)call.argument("photoHighResolution"), (Integer)call.argument("requestId"), result);
+        break;
+      } case "getContactsChangedSince": {
+        this.getContactsChangedSince(((Number)call.argument("since")).longValue(), ((Number)call.argument("sinceIdentifier")).longValue(), (boolean)call.argument("withThumbnails"), (boolean)call.argument("photoHighResolution"), (Integer)call.argument("requestId"), result);
+        break;
+      } case "searchContacts": {
+        this.searchContacts((String)call.argument("query"), (boolean)call.argument("withThumbnails"), (boolean)call.argument("photoHighResolution"), getOrder(call), getFields(call), (Integer)call.argument("requestId"), result);
+        break;
+      } case "getContactsForPhones": {
+        this.getContactsForPhones((ArrayList<String>)call.argument("phones"), (boolean)call.argument("withThumbnails"), (boolean)call.argument("photoHighResolution"), getOrder(call), getFields(call), (Integer)call.argument("requestId"), result);
         break;
       }case "getContactsForPhone": {
-        this.getContactsForPhone((String)call.argument("phone"), (boolean)call.argument("withThumbnails"), (boolean)call.argument("photoHighResolution"), (boolean)call.argument("orderByGivenName"), result);
+        this.getContactsForPhone((String)call.argument("phone"), (boolean)call.argument("withThumbnails"), (boolean)call.argument("photoHighResolution"), getOrder(call), getFields(call), (Integer)call.argument("requestId"), result);
+        break;
+      } case "getContactsByIds": {
+        this.getContactsByIds((ArrayList<Integer>)call.argument("identifiers"), (boolean)call.argument("withThumbnails"), (boolean)call.argument("photoHighResolution"), getOrder(call), getFields(call), (Integer)call.argument("requestId"), result);
         break;
       } case "getAvatar": {
-        final Contact contact = Contact.fromMap((HashMap)call.argument("contact"));
-        this.getAvatar(contact, (boolean)call.argument("photoHighResolution"), result);
+        this.getAvatar(getIdentifier(call), (boolean)call.argument("photoHighResolution"), (boolean)call.argument("raw"), (int)call.argument("size"), (Integer)call.argument("requestId"), result);
+        break;
+      } case "getAvatars": {
+        final Integer concurrency = call.argument("concurrency");
+        this.getAvatars((ArrayList<Integer>)call.argument("identifiers"), (boolean)call.argument("photoHighResolution"), (boolean)call.argument("raw"), (int)call.argument("size"),
+            concurrency != null ? concurrency : AvatarLoader.DEFAULT_CONCURRENCY, (Integer)call.argument("requestId"), result);
+        break;
+      } case "cancel": {
+        result.success(scheduler.cancel((int)call.argument("requestId")));
+        break;
+      } case "setPerformanceStatsEnabled": {
+        PerformanceStats.setEnabled((boolean)call.argument("enabled"));
+        result.success(null);
+        break;
+      } case "getPerformanceStats": {
+        result.success(PerformanceStats.get((boolean)call.argument("reset")));
         break;
       } case "addContact": {
         final Contact contact = Contact.fromMap((HashMap)call.arguments);
-        if (this.addContact(contact)) {
-          result.success(null);
-        } else {
-          result.error(null, "Failed to add the contact", null);
-        }
+        this.writeContact(ContactOperations.ADD, contact, "Failed to add the contact", result);
         break;
       } case "deleteContact": {
         final Contact contact = Contact.fromMap((HashMap)call.arguments);
-        if (this.deleteContact(contact)) {
-          result.success(null);
-        } else {
-          result.error(null, "Failed to delete the contact, make sure it has a valid identifier", null);
-        }
+        this.writeContact(ContactOperations.DELETE, contact, "Failed to delete the contact, make sure it has a valid identifier", result);
         break;
       } case "updateContact": {
         final Contact contact = Contact.fromMap((HashMap)call.arguments);
-        if (this.updateContact(contact)) {
-          result.success(null);
-        } else {
-          result.error(null, "Failed to update the contact, make sure it has a valid identifier", null);
-        }
+        this.writeContact(ContactOperations.UPDATE, contact, "Failed to update the contact, make sure it has a valid identifier", result);
+        break;
+      } case "addContacts": {
+        this.writeContacts(ContactOperations.ADD, (List<HashMap>)call.arguments, result);
+        break;
+      } case "deleteContacts": {
+        this.writeContacts(ContactOperations.DELETE, (List<HashMap>)call.arguments, result);
+        break;
+      } case "updateContacts": {
+        this.writeContacts(ContactOperations.UPDATE, (List<HashMap>)call.arguments, result);
         break;
       } default: {
         result.notImplemented();
@@ -102,13 +156,77 @@ public class ContactsServicePlugin implements MethodCallHandler {
 
 
 
+  /**
+   * Returns the fields requested by the call, or null when all of them are wanted
+   */
+  private static Set<String> getFields(MethodCall call) {
+    final ArrayList<String> fields = call.argument("fields");
+    return fields != null ? new HashSet<>(fields) : null;
+  }
+
+  /**
+   * Returns the identifier of the contact the call is about. Older callers send the whole
+   * contact, of which only the identifier is read, without decoding its avatar and details.
+   */
+  private static Integer getIdentifier(MethodCall call) {
+    if (call.hasArgument("identifier")) {
+      return call.argument("identifier");
+    }
+    final Map contact = call.argument("contact");
+    return (Integer) contact.get("identifier");
+  }
+
+  /**
+   * Returns the {@link ContactOrder} asked for by the call, or null to keep the order of the provider
+   */
+  private static String getOrder(MethodCall call) {
+    return ContactOrder.get((String) call.argument("sortBy"), (boolean) call.argument("orderByGivenName"));
+  }
+
   @TargetApi(Build.VERSION_CODES.ECLAIR)
-  private void getContacts(String query, boolean withThumbnails, boolean photoHighResolution, boolean orderByGivenName, Result result) {
-    new GetContactsTask(contentResolver, result, withThumbnails, photoHighResolution, orderByGivenName).executeOnExecutor(executor, query);
+  private void getContacts(String query, boolean withThumbnails, boolean photoHighResolution, String order, Set<String> fields, boolean useCache, boolean compact, boolean parallel, Integer requestId, Result result) {
+    GetContactsTask task = parallel
+        ? new GetContactsParallelTask(contentResolver, result, withThumbnails, photoHighResolution, order, fields, useCache ? cache : null)
+        : new GetContactsTask(contentResolver, result, withThumbnails, photoHighResolution, order, fields, useCache ? cache : null);
+    if (compact) {
+      scheduler.schedule(new GetContactsCompactTask(task, fields, result), TaskScheduler.PRIORITY_INTERACTIVE, requestId, null, result, query);
+    } else {
+      scheduler.schedule(task, TaskScheduler.PRIORITY_INTERACTIVE, requestId, null, result, (Object) query);
+    }
   }
 
-  private void getContactsForPhone(String phone, boolean withThumbnails, boolean photoHighResolution, boolean orderByGivenName, Result result) {
-    new GetContactsTaskFromPhone(contentResolver, result, withThumbnails, photoHighResolution, orderByGivenName).executeOnExecutor(executor, phone);
+  private void getContactsPage(String query, Integer afterIdentifier, int limit, boolean withThumbnails, boolean photoHighResolution, Integer requestId, Result result) {
+    scheduler.schedule(new GetContactsPageTask(contentResolver, result, withThumbnails, photoHighResolution, afterIdentifier, limit), TaskScheduler.PRIORITY_INTERACTIVE, requestId, null, result, (Object) query);
+  }
+
+  private void getContactsChangedSince(long since, long sinceIdentifier, boolean withThumbnails, boolean photoHighResolution, Integer requestId, Result result) {
+    if (!ContactChanges.isSupported()) {
+      result.error(null, "Tracking contact changes requires Android 4.3 or later", null);
+      return;
+    }
+    scheduler.schedule(new GetContactChangesTask(contentResolver, result, withThumbnails, photoHighResolution, since, sinceIdentifier), TaskScheduler.PRIORITY_BACKGROUND, requestId, null, result, (Object) null);
+  }
+
+  private void searchContacts(String query, boolean withThumbnails, boolean photoHighResolution, String order, Set<String> fields, Integer requestId, Result result) {
+    // A search typed letter by letter only needs the results of the latest letter.
+    scheduler.schedule(new SearchContactsTask(contentResolver, result, withThumbnails, photoHighResolution, order, fields, cache), TaskScheduler.PRIORITY_INTERACTIVE, requestId, "searchContacts", result, (Object) query);
+  }
+
+  private void getContactsForPhones(List<String> phones, boolean withThumbnails, boolean photoHighResolution, String order, Set<String> fields, Integer requestId, Result result) {
+    GetContactsTask reader = new GetContactsTask(contentResolver, result, withThumbnails, photoHighResolution, order, fields, null);
+    scheduler.schedule(new GetContactsForPhonesTask(reader, phones, fields, result), TaskScheduler.PRIORITY_INTERACTIVE, requestId, null, result);
+  }
+
+  private void getContactsByIds(List<Integer> identifiers, boolean withThumbnails, boolean photoHighResolution, String order, Set<String> fields, Integer requestId, Result result) {
+    ArrayList<String> contactIds = new ArrayList<>(identifiers.size());
+    for (Integer identifier : identifiers) {
+      contactIds.add(String.valueOf(identifier));
+    }
+    scheduler.schedule(new GetContactsByIdsTask(contentResolver, result, withThumbnails, photoHighResolution, order, fields, contactIds), TaskScheduler.PRIORITY_INTERACTIVE, requestId, null, result, (Object) null);
+  }
+
+  private void getContactsForPhone(String phone, boolean withThumbnails, boolean photoHighResolution, String order, Set<String> fields, Integer requestId, Result result) {
+    scheduler.schedule(new GetContactsTaskFromPhone(contentResolver, result, withThumbnails, photoHighResolution, order, fields), TaskScheduler.PRIORITY_INTERACTIVE, requestId, null, result, phone);
   }
 
 
@@ -129,29 +247,34 @@ public class ContactsServicePlugin implements MethodCallHandler {
     }
   }
 
-  private void getAvatar(final Contact contact, final boolean highRes,
-      final Result result) {
-    new GetAvatarsTask(contact, highRes, contentResolver, result).executeOnExecutor(this.executor);
+  private void getAvatar(final Integer identifier, final boolean highRes, final boolean raw,
+      final int size, final Integer requestId, final Result result) {
+    scheduler.schedule(new GetAvatarsTask(identifier, highRes, raw, size, avatarCache, result), TaskScheduler.PRIORITY_BACKGROUND, requestId, null, result);
   }
 
   private static class GetAvatarsTask extends AsyncTask<Void, Void, byte[]> {
-    final Contact contact;
+    final Integer identifier;
     final boolean highRes;
-    final ContentResolver contentResolver;
+    final boolean raw;
+    final int size;
+    final AvatarCache avatarCache;
     final Result result;
 
-    GetAvatarsTask(final Contact contact, final boolean highRes,
-        final ContentResolver contentResolver, final Result result) {
-      this.contact = contact;
+    GetAvatarsTask(final Integer identifier, final boolean highRes, final boolean raw,
+        final int size, final AvatarCache avatarCache, final Result result) {
+      this.identifier = identifier;
       this.highRes = highRes;
-      this.contentResolver = contentResolver;
+      this.raw = raw;
+      this.size = size;
+      this.avatarCache = avatarCache;
       this.result = result;
     }
 
     @Override
     protected byte[] doInBackground(final Void... params) {
-      // Load avatar for each contact identifier.
-      return loadContactPhotoHighRes(contact.identifier, highRes, contentResolver);
+      final byte[] avatar = avatarCache.get(identifier, highRes, raw, size);
+      PerformanceStats.count(PerformanceStats.BYTES, avatar != null ? avatar.length : 0);
+      return avatar;
     }
 
     @Override
@@ -160,245 +283,262 @@ public class ContactsServicePlugin implements MethodCallHandler {
     }
   }
 
-  static byte[] loadContactPhotoHighRes(final Integer identifier,
-      final boolean photoHighResolution, final ContentResolver contentResolver) {
+  private void getAvatars(final List<Integer> identifiers, final boolean highRes, final boolean raw,
+      final int size, final int concurrency, final Integer requestId, final Result result) {
+    final AvatarLoader loader = new AvatarLoader(contentResolver, TaskScheduler.PRIORITY_BACKGROUND, avatarCache, highRes, raw, size);
+    scheduler.schedule(new GetAvatarsForIdentifiersTask(identifiers, loader, concurrency, result), TaskScheduler.PRIORITY_BACKGROUND, requestId, null, result);
+  }
+
+  private static class GetAvatarsForIdentifiersTask extends AsyncTask<Void, Void, HashMap<Integer, byte[]>> {
+    final List<Integer> identifiers;
+    final AvatarLoader loader;
+    final int concurrency;
+    final Result result;
+
+    GetAvatarsForIdentifiersTask(final List<Integer> identifiers, final AvatarLoader loader,
+        final int concurrency, final Result result) {
+      this.identifiers = identifiers;
+      this.loader = loader;
+      this.concurrency = concurrency;
+      this.result = result;
+    }
+
+    @Override
+    protected HashMap<Integer, byte[]> doInBackground(final Void... params) {
+      try {
+        final HashMap<Integer, byte[]> avatars = loader.load(identifiers, concurrency);
+        if (PerformanceStats.isEnabled()) {
+          long bytes = 0;
+          for (byte[] avatar : avatars.values()) {
+            bytes += avatar.length;
+          }
+          PerformanceStats.count(PerformanceStats.BYTES, bytes);
+        }
+        return avatars;
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+    }
+
+    @Override
+    protected void onPostExecute(final HashMap<Integer, byte[]> avatars) {
+      result.success(avatars);
+    }
+  }
+
+  /**
+   * Loads the photo of a contact, or returns null if it has none
+   * @param raw whether to return the bytes stored by the provider, usually a JPEG, rather than
+   *            decoding them and encoding them again as PNG
+   * @param size when positive, the photo is downscaled so that its longest side is at most this
+   *             many pixels, and returned as JPEG
+   */
+  static byte[] loadContactPhoto(final Integer identifier, final boolean photoHighResolution,
+      final boolean raw, final int size, final ContentResolver contentResolver) {
+    final long start = PerformanceStats.begin(PerformanceStats.PHOTO_DECODE);
     try {
       final Uri uri = ContentUris.withAppendedId(ContactsContract.Contacts.CONTENT_URI, identifier);
       final InputStream input = ContactsContract.Contacts.openContactPhotoInputStream(contentResolver, uri, photoHighResolution);
 
       if (input == null) return null;
 
-      final Bitmap bitmap = BitmapFactory.decodeStream(input);
-      input.close();
-
-      final ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-      final byte[] bytes = stream.toByteArray();
-      stream.close();
-      return bytes;
+      try {
+        final int length = readPhoto(input);
+        return encodePhoto(photoBuffer.get(), length, raw, size);
+      } finally {
+        input.close();
+        if (photoBuffer.get().length > MAX_POOLED_PHOTO_BUFFER) {
+          // Let the next photo start over with a small buffer.
+          photoBuffer.remove();
+        }
+      }
     } catch (final IOException ex){
       Log.e(LOG_TAG, ex.getMessage());
       return null;
+    } finally {
+      PerformanceStats.end(PerformanceStats.PHOTO_DECODE, start);
     }
   }
 
-  private boolean addContact(Contact contact){
-
-    ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-
-    ContentProviderOperation.Builder op = ContentProviderOperation.newInsert(ContactsContract.RawContacts.CONTENT_URI)
-            .withValue(ContactsContract.RawContacts.ACCOUNT_TYPE, null)
-            .withValue(ContactsContract.RawContacts.ACCOUNT_NAME, null);
-    ops.add(op.build());
-
-    op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-            .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
-            .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE)
-            .withValue(StructuredName.GIVEN_NAME, contact.givenName)
-            .withValue(StructuredName.MIDDLE_NAME, contact.middleName)
-            .withValue(StructuredName.FAMILY_NAME, contact.familyName)
-            .withValue(StructuredName.PREFIX, contact.prefix)
-            .withValue(StructuredName.SUFFIX, contact.suffix);
-    ops.add(op.build());
-
-    op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-            .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
-            .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.Note.CONTENT_ITEM_TYPE)
-            .withValue(CommonDataKinds.Note.NOTE, contact.note);
-    ops.add(op.build());
-
-    op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-            .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
-            .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.Organization.CONTENT_ITEM_TYPE)
-            .withValue(Organization.COMPANY, contact.company)
-            .withValue(Organization.TITLE, contact.jobTitle);
-    ops.add(op.build());
-
-    //Photo
-    op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-            .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
-            .withValue(ContactsContract.Data.IS_SUPER_PRIMARY, 1)
-            .withValue(ContactsContract.CommonDataKinds.Photo.PHOTO, contact.avatar)
-            .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Photo.CONTENT_ITEM_TYPE);
-    ops.add(op.build());
-
-    op.withYieldAllowed(true);
-
-    //Phones
-    for(Item phone : contact.phones){
-      op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-              .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
-              .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.Phone.CONTENT_ITEM_TYPE)
-              .withValue(ContactsContract.CommonDataKinds.Phone.NUMBER, phone.value);
-
-      if (Item.stringToPhoneType(phone.label) == ContactsContract.CommonDataKinds.Phone.TYPE_CUSTOM){
-        op.withValue( ContactsContract.CommonDataKinds.Phone.TYPE, ContactsContract.CommonDataKinds.BaseTypes.TYPE_CUSTOM );
-        op.withValue(ContactsContract.CommonDataKinds.Phone.LABEL, phone.label);
-      } else
-        op.withValue( ContactsContract.CommonDataKinds.Phone.TYPE, Item.stringToPhoneType(phone.label) );
-
-      ops.add(op.build());
+  static byte[] encodePhoto(final byte[] buffer, final int length, final boolean raw,
+      final int size) throws IOException {
+    if (raw && size <= 0) {
+      return Arrays.copyOf(buffer, length);
+    }
+
+    final Bitmap bitmap = decodePhoto(buffer, length, size);
+    if (bitmap == null) return null;
+
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    if (size > 0) {
+      bitmap.compress(Bitmap.CompressFormat.JPEG, 90, stream);
+    } else {
+      bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
     }
+    bitmap.recycle();
+    final byte[] bytes = stream.toByteArray();
+    stream.close();
+    return bytes;
+  }
 
-    //Emails
-    for (Item email : contact.emails) {
-      op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-              .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
-              .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.Email.CONTENT_ITEM_TYPE)
-              .withValue(CommonDataKinds.Email.ADDRESS, email.value)
-              .withValue(CommonDataKinds.Email.TYPE, Item.stringToEmailType(email.label));
-      ops.add(op.build());
+  /**
+   * Decodes the photo, downscaled so that its longest side is at most the given size if above 0
+   * @return the bitmap, or null if the photo could not be decoded
+   */
+  static Bitmap decodePhoto(final byte[] buffer, final int length, final int size) {
+    final BitmapFactory.Options options = new BitmapFactory.Options();
+    if (size > 0) {
+      options.inJustDecodeBounds = true;
+      BitmapFactory.decodeByteArray(buffer, 0, length, options);
+      options.inJustDecodeBounds = false;
+      // Decoded at the smallest power-of-two fraction keeping the longest side at least size,
+      // then scaled down to size exactly.
+      final int longest = Math.max(options.outWidth, options.outHeight);
+      options.inSampleSize = 1;
+      while (longest / (options.inSampleSize * 2) >= size) {
+        options.inSampleSize *= 2;
+      }
     }
-    //Postal addresses
-    for (PostalAddress address : contact.postalAddresses) {
-      op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-              .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
-              .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE)
-              .withValue(CommonDataKinds.StructuredPostal.TYPE, PostalAddress.stringToPostalAddressType(address.label))
-              .withValue(CommonDataKinds.StructuredPostal.LABEL, address.label)
-              .withValue(CommonDataKinds.StructuredPostal.STREET, address.street)
-              .withValue(CommonDataKinds.StructuredPostal.CITY, address.city)
-              .withValue(CommonDataKinds.StructuredPostal.REGION, address.region)
-              .withValue(CommonDataKinds.StructuredPostal.POSTCODE, address.postcode)
-              .withValue(CommonDataKinds.StructuredPostal.COUNTRY, address.country);
-      ops.add(op.build());
+    final Bitmap bitmap = BitmapFactory.decodeByteArray(buffer, 0, length, options);
+    if (bitmap == null || size <= 0) {
+      return bitmap;
     }
+    return scaleDown(bitmap, size);
+  }
 
-    try {
-      contentResolver.applyBatch(ContactsContract.AUTHORITY, ops);
-      return true;
-    } catch (Exception e) {
-      return false;
+  /**
+   * Scales the bitmap down so that its longest side is the given size, recycling it if scaled
+   */
+  private static Bitmap scaleDown(final Bitmap bitmap, final int size) {
+    final int longest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+    if (longest <= size) {
+      return bitmap;
+    }
+    final int width = Math.max(1, (int) ((long) bitmap.getWidth() * size / longest));
+    final int height = Math.max(1, (int) ((long) bitmap.getHeight() * size / longest));
+    final Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+    if (scaled != bitmap) {
+      bitmap.recycle();
     }
+    return scaled;
   }
 
-  private boolean deleteContact(Contact contact){
-    ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-    ops.add(ContentProviderOperation.newDelete(ContactsContract.RawContacts.CONTENT_URI)
-            .withSelection(ContactsContract.RawContacts.CONTACT_ID + "=?", new String[]{String.valueOf(contact.identifier)})
-            .build());
-    try {
-      contentResolver.applyBatch(ContactsContract.AUTHORITY, ops);
-      return true;
-    } catch (Exception e) {
-      return false;
+  /** Largest buffer kept between photos, larger ones are only used for the photo that needed them */
+  private static final int MAX_POOLED_PHOTO_BUFFER = 1024 * 1024;
+
+  /** Buffer each thread reads photos into, reused from one photo to the next */
+  private static final ThreadLocal<byte[]> photoBuffer = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[64 * 1024];
+    }
+  };
+
+  /**
+   * Reads the whole stream into {@link #photoBuffer}
+   * @return the number of bytes read
+   */
+  private static int readPhoto(final InputStream input) throws IOException {
+    byte[] buffer = photoBuffer.get();
+    int length = 0;
+    int read;
+    while ((read = input.read(buffer, length, buffer.length - length)) != -1) {
+      length += read;
+      if (length == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        photoBuffer.set(buffer);
+      }
+    }
+    return length;
+  }
 
+  /**
+   * Applies the operation to the contact in the background
+   * @param error the message of the error returned if the contact could not be written
+   */
+  private void writeContact(int operation, Contact contact, String error, Result result) {
+    new WriteContactTask(contentResolver, cache, operation, contact, error, result).executeOnExecutor(writeExecutor);
+  }
+
+  private static class WriteContactTask extends AsyncTask<Void, Void, Boolean> {
+    final ContentResolver contentResolver;
+    final ContactsCache cache;
+    final int operation;
+    final Contact contact;
+    final String error;
+    final Result result;
+
+    WriteContactTask(final ContentResolver contentResolver, final ContactsCache cache, final int operation,
+        final Contact contact, final String error, final Result result) {
+      this.contentResolver = contentResolver;
+      this.cache = cache;
+      this.operation = operation;
+      this.contact = contact;
+      this.error = error;
+      this.result = result;
+    }
+
+    @Override
+    protected Boolean doInBackground(final Void... params) {
+      final boolean written = ContactOperations.apply(contentResolver, operation, contact);
+      // Before the result is delivered, so that a read made in response sees the write.
+      cache.invalidate();
+      return written;
+    }
+
+    @Override
+    protected void onPostExecute(final Boolean written) {
+      if (written) {
+        result.success(null);
+      } else {
+        result.error(null, error, null);
+      }
     }
   }
 
-  private boolean updateContact(Contact contact) {
-    ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-    ContentProviderOperation.Builder op;
-
-    // Drop all details about contact except name
-    op = ContentProviderOperation.newDelete(ContactsContract.Data.CONTENT_URI)
-            .withSelection(ContactsContract.Data.CONTACT_ID + "=? AND " + ContactsContract.Data.MIMETYPE + "=?",
-                    new String[]{String.valueOf(contact.identifier), ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE});
-    ops.add(op.build());
-
-    op = ContentProviderOperation.newDelete(ContactsContract.Data.CONTENT_URI)
-            .withSelection(ContactsContract.Data.CONTACT_ID + "=? AND " + ContactsContract.Data.MIMETYPE + "=?",
-                    new String[]{String.valueOf(contact.identifier), ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE});
-    ops.add(op.build());
-
-    op = ContentProviderOperation.newDelete(ContactsContract.Data.CONTENT_URI)
-            .withSelection(ContactsContract.Data.CONTACT_ID +"=? AND " + ContactsContract.Data.MIMETYPE + "=?",
-                    new String[]{String.valueOf(contact.identifier), ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE});
-    ops.add(op.build());
-
-    op = ContentProviderOperation.newDelete(ContactsContract.Data.CONTENT_URI)
-            .withSelection(ContactsContract.Data.CONTACT_ID +"=? AND " + ContactsContract.Data.MIMETYPE + "=?",
-                    new String[]{String.valueOf(contact.identifier), ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE});
-    ops.add(op.build());
-
-    op = ContentProviderOperation.newDelete(ContactsContract.Data.CONTENT_URI)
-            .withSelection(ContactsContract.Data.CONTACT_ID + "=? AND " + ContactsContract.Data.MIMETYPE + "=?",
-                    new String[]{String.valueOf(contact.identifier), ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE});
-    ops.add(op.build());
-
-    //Photo
-    op = ContentProviderOperation.newDelete(ContactsContract.Data.CONTENT_URI)
-            .withSelection(ContactsContract.Data.CONTACT_ID + "=? AND " + ContactsContract.Data.MIMETYPE + "=?",
-                    new String[]{String.valueOf(contact.identifier), ContactsContract.CommonDataKinds.Photo.CONTENT_ITEM_TYPE});
-    ops.add(op.build());
-
-    // Update data (name)
-    op = ContentProviderOperation.newUpdate(ContactsContract.Data.CONTENT_URI)
-            .withSelection(ContactsContract.Data.CONTACT_ID + "=? AND " + ContactsContract.Data.MIMETYPE + "=?",
-                    new String[]{String.valueOf(contact.identifier), ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE})
-            .withValue(StructuredName.GIVEN_NAME, contact.givenName)
-            .withValue(StructuredName.MIDDLE_NAME, contact.middleName)
-            .withValue(StructuredName.FAMILY_NAME, contact.familyName)
-            .withValue(StructuredName.PREFIX, contact.prefix)
-            .withValue(StructuredName.SUFFIX, contact.suffix);
-    ops.add(op.build());
-
-    // Insert data back into contact
-    op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-            .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE)
-            .withValue(ContactsContract.Data.RAW_CONTACT_ID, contact.identifier)
-            .withValue(Organization.TYPE, Organization.TYPE_WORK)
-            .withValue(Organization.COMPANY, contact.company)
-            .withValue(Organization.TITLE, contact.jobTitle);
-    ops.add(op.build());
-
-    op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-            .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE)
-            .withValue(ContactsContract.Data.RAW_CONTACT_ID, contact.identifier)
-            .withValue(CommonDataKinds.Note.NOTE, contact.note);
-    ops.add(op.build());
-
-    //Photo
-    op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-          .withValue(ContactsContract.Data.RAW_CONTACT_ID, contact.identifier)
-          .withValue(ContactsContract.Data.IS_SUPER_PRIMARY, 1)
-          .withValue(ContactsContract.CommonDataKinds.Photo.PHOTO, contact.avatar)
-          .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Photo.CONTENT_ITEM_TYPE);
-    ops.add(op.build());
-
-
-    for (Item phone : contact.phones) {
-      op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-              .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.Phone.CONTENT_ITEM_TYPE)
-              .withValue(ContactsContract.Data.RAW_CONTACT_ID, contact.identifier)
-              .withValue(Phone.NUMBER, phone.value);
-
-      if (Item.stringToPhoneType(phone.label) == ContactsContract.CommonDataKinds.Phone.TYPE_CUSTOM){
-        op.withValue( ContactsContract.CommonDataKinds.Phone.TYPE, ContactsContract.CommonDataKinds.BaseTypes.TYPE_CUSTOM );
-        op.withValue(ContactsContract.CommonDataKinds.Phone.LABEL, phone.label);
-      } else
-        op.withValue( ContactsContract.CommonDataKinds.Phone.TYPE, Item.stringToPhoneType(phone.label) );
-
-      ops.add(op.build());
+  /**
+   * Applies the operation to all the contacts in the background, and returns whether each of them was written
+   */
+  private void writeContacts(int operation, List<HashMap> maps, Result result) {
+    final ArrayList<Contact> contacts = new ArrayList<>(maps.size());
+    for (HashMap map : maps) {
+      contacts.add(Contact.fromMap(map));
     }
+    new WriteContactsTask(contentResolver, cache, operation, contacts, result).executeOnExecutor(writeExecutor);
+  }
+
+  private static class WriteContactsTask extends AsyncTask<Void, Void, ArrayList<Boolean>> {
+    final ContentResolver contentResolver;
+    final ContactsCache cache;
+    final int operation;
+    final List<Contact> contacts;
+    final Result result;
 
-    for (Item email : contact.emails) {
-      op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-              .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.Email.CONTENT_ITEM_TYPE)
-              .withValue(ContactsContract.Data.RAW_CONTACT_ID, contact.identifier)
-              .withValue(CommonDataKinds.Email.ADDRESS, email.value)
-              .withValue(CommonDataKinds.Email.TYPE, Item.stringToEmailType(email.label));
-      ops.add(op.build());
+    WriteContactsTask(final ContentResolver contentResolver, final ContactsCache cache, final int operation,
+        final List<Contact> contacts, final Result result) {
+      this.contentResolver = contentResolver;
+      this.cache = cache;
+      this.operation = operation;
+      this.contacts = contacts;
+      this.result = result;
     }
 
-    for (PostalAddress address : contact.postalAddresses) {
-      op = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-              .withValue(ContactsContract.Data.MIMETYPE, CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE)
-              .withValue(ContactsContract.Data.RAW_CONTACT_ID, contact.identifier)
-              .withValue(CommonDataKinds.StructuredPostal.TYPE, PostalAddress.stringToPostalAddressType(address.label))
-              .withValue(CommonDataKinds.StructuredPostal.STREET, address.street)
-              .withValue(CommonDataKinds.StructuredPostal.CITY, address.city)
-              .withValue(CommonDataKinds.StructuredPostal.REGION, address.region)
-              .withValue(CommonDataKinds.StructuredPostal.POSTCODE, address.postcode)
-              .withValue(CommonDataKinds.StructuredPostal.COUNTRY, address.country);
-      ops.add(op.build());
+    @Override
+    protected ArrayList<Boolean> doInBackground(final Void... params) {
+      final boolean[] written = ContactOperations.apply(contentResolver, operation, contacts);
+      // Some batches may have been written even if others failed.
+      cache.invalidate();
+      final ArrayList<Boolean> results = new ArrayList<>(written.length);
+      for (boolean w : written) {
+        results.add(w);
+      }
+      return results;
     }
 
-    try {
-      contentResolver.applyBatch(ContactsContract.AUTHORITY, ops);
-      return true;
-    } catch (Exception e) {
-      return false;
+    @Override
+    protected void onPostExecute(final ArrayList<Boolean> results) {
+      result.success(results);
     }
   }
 
@@ -0,0 +1,42 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.content.ContentResolver;
+
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Starts a {@link StreamContactsTask} when the Dart side listens to the contacts stream, and
+ * stops it when the subscription is cancelled.
+ */
+class ContactsStreamHandler implements EventChannel.StreamHandler {
+
+    private final ContentResolver contentResolver;
+    private final Executor executor;
+    private StreamContactsTask task;
+
+    ContactsStreamHandler(ContentResolver contentResolver, Executor executor) {
+        this.contentResolver = contentResolver;
+        this.executor = executor;
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        final HashMap args = (HashMap) arguments;
+        if (task != null) {
+            task.cancel(true);
+        }
+        task = new StreamContactsTask(contentResolver, events, (boolean) args.get("withThumbnails"), (boolean) args.get("photoHighResolution"), (int) args.get("batchSize"));
+        task.executeOnExecutor(executor, args.get("query"));
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        if (task != null) {
+            task.cancel(true);
+            task = null;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.os.Build;
+
+import static android.provider.ContactsContract.CommonDataKinds;
+import static android.provider.ContactsContract.Contacts;
+import static android.provider.ContactsContract.Data;
+
+/***
+ * Indexes of the columns read from a {@link Data} cursor.
+ * They are looked up once per cursor rather than once per row.
+ ***/
+@TargetApi(Build.VERSION_CODES.ECLAIR)
+class DataColumns {
+
+    final int contactId, mimeType, displayName;
+    final int givenName, middleName, familyName, prefix, suffix;
+    final int note;
+    final int phoneNumber, phoneType;
+    final int emailAddress, emailType, emailLabel;
+    final int company, jobTitle;
+    final int postalType, postalLabel, street, city, postcode, region, country;
+    final int eventType, eventStartDate;
+    /** The row and the contact's photo row, and the thumbnail, read only by the tasks inlining thumbnails */
+    final int dataId, photoId, photo;
+
+    DataColumns(Cursor cursor) {
+        contactId = cursor.getColumnIndex(Data.CONTACT_ID);
+        mimeType = cursor.getColumnIndex(Data.MIMETYPE);
+        displayName = cursor.getColumnIndex(Contacts.DISPLAY_NAME);
+
+        givenName = cursor.getColumnIndex(CommonDataKinds.StructuredName.GIVEN_NAME);
+        middleName = cursor.getColumnIndex(CommonDataKinds.StructuredName.MIDDLE_NAME);
+        familyName = cursor.getColumnIndex(CommonDataKinds.StructuredName.FAMILY_NAME);
+        prefix = cursor.getColumnIndex(CommonDataKinds.StructuredName.PREFIX);
+        suffix = cursor.getColumnIndex(CommonDataKinds.StructuredName.SUFFIX);
+
+        note = cursor.getColumnIndex(CommonDataKinds.Note.NOTE);
+
+        phoneNumber = cursor.getColumnIndex(CommonDataKinds.Phone.NUMBER);
+        phoneType = cursor.getColumnIndex(CommonDataKinds.Phone.TYPE);
+
+        emailAddress = cursor.getColumnIndex(CommonDataKinds.Email.ADDRESS);
+        emailType = cursor.getColumnIndex(CommonDataKinds.Email.TYPE);
+        emailLabel = cursor.getColumnIndex(CommonDataKinds.Email.LABEL);
+
+        company = cursor.getColumnIndex(CommonDataKinds.Organization.COMPANY);
+        jobTitle = cursor.getColumnIndex(CommonDataKinds.Organization.TITLE);
+
+        postalType = cursor.getColumnIndex(CommonDataKinds.StructuredPostal.TYPE);
+        postalLabel = cursor.getColumnIndex(CommonDataKinds.StructuredPostal.LABEL);
+        street = cursor.getColumnIndex(CommonDataKinds.StructuredPostal.STREET);
+        city = cursor.getColumnIndex(CommonDataKinds.StructuredPostal.CITY);
+        postcode = cursor.getColumnIndex(CommonDataKinds.StructuredPostal.POSTCODE);
+        region = cursor.getColumnIndex(CommonDataKinds.StructuredPostal.REGION);
+        country = cursor.getColumnIndex(CommonDataKinds.StructuredPostal.COUNTRY);
+
+        eventType = cursor.getColumnIndex(CommonDataKinds.Event.TYPE);
+        eventStartDate = cursor.getColumnIndex(CommonDataKinds.Event.START_DATE);
+
+        dataId = cursor.getColumnIndex(Data._ID);
+        photoId = cursor.getColumnIndex(Contacts.PHOTO_ID);
+        photo = cursor.getColumnIndex(CommonDataKinds.Photo.PHOTO);
+    }
+}
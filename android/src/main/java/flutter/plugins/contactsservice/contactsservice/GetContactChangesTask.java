@@ -0,0 +1,60 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Reads the contacts added or updated since a given time, along with the identifiers of the
+ * contacts deleted since then, so that a copy of the address book can be kept in sync without
+ * reading it all.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class GetContactChangesTask extends GetContactsTask {
+
+    private final long since;
+    private final long sinceIdentifier;
+    private ContactChanges changes;
+
+    public GetContactChangesTask(ContentResolver contentResolver, MethodChannel.Result result, boolean withThumbnails, boolean photoHighResolution, long since, long sinceIdentifier) {
+        super(contentResolver, result, withThumbnails, photoHighResolution, false);
+        this.since = since;
+        this.sinceIdentifier = sinceIdentifier;
+    }
+
+    @Override
+    protected Cursor getCursor(String query) {
+        changes = ContactChanges.since(contentResolver, since, sinceIdentifier);
+        if (changes.updatedIds.isEmpty())
+            return null;
+        return getCursorForContacts(changes.updatedIds);
+    }
+
+    @Override
+    protected void onPostExecute(ArrayList<HashMap> contacts) {
+        if (contacts == null) {
+            // Interrupted while reading, the updated contacts are not all known.
+            getContactResult.error(TaskScheduler.CANCELLED, "The changes could not be read to the end", null);
+            return;
+        }
+        ArrayList<Integer> deleted = new ArrayList<>();
+        for (String id : changes.deletedIds) {
+            deleted.add(Integer.valueOf(id));
+        }
+
+        HashMap<String, Object> result = new HashMap<>();
+        result.put("updated", contacts);
+        result.put("deleted", deleted);
+        result.put("timestamp", changes.timestamp);
+        result.put("lastIdentifier", changes.contactId);
+        // Deletions older than the provider keeps them cannot be reported.
+        result.put("complete", since == 0 || !ContactChanges.isExpired(since));
+        getContactResult.success(result);
+    }
+}
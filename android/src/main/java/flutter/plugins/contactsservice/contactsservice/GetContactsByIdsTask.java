@@ -0,0 +1,37 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.content.ContentResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Loads the contacts of the given identifiers, such as the contact of a detail screen to
+ * refresh. The Data rows of the contacts are read through the contact identifier index, in a
+ * single query per {@link #MAX_CONTACT_IDS} identifiers, instead of scanning the whole table.
+ */
+class GetContactsByIdsTask extends GetContactsTask {
+
+    private final List<String> contactIds;
+
+    public GetContactsByIdsTask(ContentResolver contentResolver, MethodChannel.Result result, boolean withThumbnails, boolean photoHighResolution, String order, Set<String> fields, List<String> contactIds) {
+        super(contentResolver, result, withThumbnails, photoHighResolution, order, fields, null);
+        this.contactIds = contactIds;
+    }
+
+    @Override
+    protected ArrayList<Contact> findContacts(String query) {
+        if (contactIds.isEmpty())
+            return new ArrayList<>();
+        return getContactsFrom(getCursorForContacts(contactIds));
+    }
+
+    @Override
+    protected boolean isSortedByProvider(String query) {
+        // The rows are ordered by identifier to be aggregated, the order asked for is applied after.
+        return false;
+    }
+}
@@ -0,0 +1,45 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.os.AsyncTask;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Reads contacts like {@link GetContactsTask} does, but returns them encoded by {@link ContactsCodec}
+ * rather than as a list of maps.
+ */
+class GetContactsCompactTask extends AsyncTask<String, Void, byte[]> {
+
+    private final GetContactsTask reader;
+    private final Set<String> fields;
+    private final MethodChannel.Result result;
+
+    /**
+     * @param reader the task reading the contacts, which is not executed itself
+     */
+    GetContactsCompactTask(GetContactsTask reader, Set<String> fields, MethodChannel.Result result) {
+        this.reader = reader;
+        this.fields = fields;
+        this.result = result;
+    }
+
+    @Override
+    protected byte[] doInBackground(String... params) {
+        ArrayList<Contact> contacts = reader.readContacts(params[0]);
+        if (contacts == null)
+            return null;
+        long start = PerformanceStats.begin(PerformanceStats.TO_MAP);
+        byte[] encoded = ContactsCodec.encode(contacts, fields);
+        PerformanceStats.end(PerformanceStats.TO_MAP, start);
+        PerformanceStats.count(PerformanceStats.BYTES, encoded.length);
+        return encoded;
+    }
+
+    @Override
+    protected void onPostExecute(byte[] contacts) {
+        result.success(contacts);
+    }
+}
@@ -0,0 +1,94 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.os.AsyncTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Finds the contacts of many phone numbers at once with a {@link PhoneIndex}, then reads them all
+ * with a single query, rather than looking up each number like {@link GetContactsTaskFromPhone}.
+ */
+class GetContactsForPhonesTask extends AsyncTask<Void, Void, HashMap<String, ArrayList<HashMap>>> {
+
+    private final GetContactsTask reader;
+    private final List<String> phones;
+    private final Set<String> fields;
+    private final MethodChannel.Result result;
+
+    /**
+     * @param reader the task reading the contacts, which is not executed itself
+     */
+    GetContactsForPhonesTask(GetContactsTask reader, List<String> phones, Set<String> fields, MethodChannel.Result result) {
+        this.reader = reader;
+        this.phones = phones;
+        this.fields = fields;
+        this.result = result;
+    }
+
+    @Override
+    protected HashMap<String, ArrayList<HashMap>> doInBackground(Void... params) {
+        PhoneIndex index = PhoneIndex.read(reader.contentResolver);
+        LinkedHashMap<String, Set<Integer>> contactIdsByPhone = new LinkedHashMap<>();
+        LinkedHashSet<String> contactIds = new LinkedHashSet<>();
+        for (String phone : phones) {
+            if (contactIdsByPhone.containsKey(phone))
+                continue;
+            Set<Integer> ids = index.find(phone);
+            contactIdsByPhone.put(phone, ids);
+            for (Integer id : ids) {
+                contactIds.add(String.valueOf(id));
+            }
+        }
+
+        ArrayList<Contact> contacts = reader.readContactsById(new ArrayList<>(contactIds));
+        if (contacts == null)
+            return null;
+        // Each contact is converted only once, however many numbers it matches.
+        HashMap<Integer, HashMap> contactMaps = new HashMap<>();
+        final HashMap<Integer, Integer> positions = new HashMap<>();
+        for (Contact contact : contacts) {
+            contactMaps.put(contact.identifier, contact.toMap(fields));
+            positions.put(contact.identifier, positions.size());
+        }
+        Comparator<Integer> byPosition = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return positions.get(a) - positions.get(b);
+            }
+        };
+
+        HashMap<String, ArrayList<HashMap>> contactsByPhone = new HashMap<>();
+        for (Map.Entry<String, Set<Integer>> entry : contactIdsByPhone.entrySet()) {
+            // A contact left without any row read, such as one deleted meanwhile, is dropped.
+            ArrayList<Integer> ids = new ArrayList<>();
+            for (Integer id : entry.getValue()) {
+                if (positions.containsKey(id)) {
+                    ids.add(id);
+                }
+            }
+            // The contacts keep the order asked for.
+            Collections.sort(ids, byPosition);
+            ArrayList<HashMap> matches = new ArrayList<>(ids.size());
+            for (Integer id : ids) {
+                matches.add(contactMaps.get(id));
+            }
+            contactsByPhone.put(entry.getKey(), matches);
+        }
+        return contactsByPhone;
+    }
+
+    @Override
+    protected void onPostExecute(HashMap<String, ArrayList<HashMap>> contactsByPhone) {
+        result.success(contactsByPhone);
+    }
+}
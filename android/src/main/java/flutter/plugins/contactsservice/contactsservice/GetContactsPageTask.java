@@ -0,0 +1,72 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Loads one page of contacts, ordered by identifier, starting right after a given identifier.
+ * Only the contacts of the page are aggregated, so the cost of a call is bounded by the page
+ * size rather than by the size of the address book.
+ */
+class GetContactsPageTask extends GetContactsTask {
+
+    protected Integer afterIdentifier;
+    private final int limit;
+
+    public GetContactsPageTask(ContentResolver contentResolver, MethodChannel.Result result, boolean withThumbnails, boolean photoHighResolution, Integer afterIdentifier, int limit) {
+        super(contentResolver, result, withThumbnails, photoHighResolution, false);
+        this.afterIdentifier = afterIdentifier;
+        this.limit = limit;
+    }
+
+    @Override
+    protected Cursor getCursor(String query) {
+        while (true) {
+            ArrayList<String> contactIds = getContactIds(query);
+            if (contactIds.isEmpty())
+                return null;
+
+            Cursor cursor = getCursorForContacts(contactIds);
+            if (cursor != null && cursor.getCount() > 0)
+                return cursor;
+
+            // None of these contacts has any row we read, skip to the next page rather than
+            // returning an empty page, which the caller takes as the end of the list.
+            if (cursor != null)
+                cursor.close();
+            afterIdentifier = Integer.valueOf(contactIds.get(contactIds.size() - 1));
+        }
+    }
+
+    /**
+     * Returns the identifiers of the next {@link #limit} contacts after {@link #afterIdentifier}
+     */
+    private ArrayList<String> getContactIds(String query) {
+        Uri uri = ContactsContract.Contacts.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY, String.valueOf(limit))
+                .build();
+        String selection = ContactsContract.Contacts._ID + " > ?";
+        ArrayList<String> selectionArgs = new ArrayList<>();
+        selectionArgs.add(String.valueOf(afterIdentifier == null ? 0 : afterIdentifier));
+        if (query != null) {
+            selection += " AND " + ContactsContract.Contacts.DISPLAY_NAME_PRIMARY + " LIKE ?";
+            selectionArgs.add(query + "%");
+        }
+
+        ArrayList<String> contactIds = new ArrayList<>();
+        Cursor cursor = contentResolver.query(uri, new String[]{ContactsContract.Contacts._ID}, selection,
+                selectionArgs.toArray(new String[0]), ContactsContract.Contacts._ID + " ASC");
+        while (cursor != null && cursor.moveToNext()) {
+            contactIds.add(cursor.getString(0));
+        }
+        if (cursor != null)
+            cursor.close();
+        return contactIds;
+    }
+}
@@ -0,0 +1,163 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Reads the contacts like {@link GetContactsTask} does, but splits the rows into ranges of
+ * contact identifiers read and aggregated at the same time, one per core, so that filling the
+ * cursor windows and aggregating the rows of a large address book is not bound to a single
+ * thread. The ranges hold about as many contacts each, from a scan of the identifiers of the
+ * contacts, and the contacts of the ranges are merged in the order of the ranges.
+ */
+class GetContactsParallelTask extends GetContactsTask {
+
+    /** Fewest contacts worth a range of their own, below which the contacts are read on a single thread */
+    static final int MIN_PARTITION_CONTACTS = 2000;
+
+    private static final int MAX_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Threads shared by all the calls, the thread of the call reads one of its ranges itself */
+    private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        POOL.allowCoreThreadTimeOut(true);
+    }
+
+    /** Most ranges the contacts are split into */
+    private final int partitions;
+
+    public GetContactsParallelTask(ContentResolver contentResolver, MethodChannel.Result result, boolean withThumbnails, boolean photoHighResolution, String order, Set<String> fields, ContactsCache cache) {
+        this(contentResolver, result, withThumbnails, photoHighResolution, order, fields, cache, MAX_THREADS);
+    }
+
+    /**
+     * @param partitions the most ranges to split the contacts into, more than {@link #POOL} has
+     *                   threads only queuing the others
+     */
+    GetContactsParallelTask(ContentResolver contentResolver, MethodChannel.Result result, boolean withThumbnails, boolean photoHighResolution, String order, Set<String> fields, ContactsCache cache, int partitions) {
+        super(contentResolver, result, withThumbnails, photoHighResolution, order, fields, cache);
+        this.partitions = partitions;
+    }
+
+    @Override
+    protected ArrayList<Contact> findContacts(final String query) {
+        if (usesCache(query)) {
+            return super.findContacts(query);
+        }
+        int[] bounds = getPartitionBounds(getContactIds(), this.partitions, MIN_PARTITION_CONTACTS);
+        if (bounds.length == 0) {
+            return super.findContacts(query);
+        }
+
+        ArrayList<Callable<ArrayList<Contact>>> partitions = new ArrayList<>(bounds.length + 1);
+        for (int i = 0; i <= bounds.length; i++) {
+            final String range;
+            final String[] rangeArgs;
+            if (i == 0) {
+                range = ContactsContract.Data.CONTACT_ID + " < ?";
+                rangeArgs = new String[]{String.valueOf(bounds[0])};
+            } else if (i == bounds.length) {
+                // Open-ended, for the contacts added since the identifiers were read.
+                range = ContactsContract.Data.CONTACT_ID + " >= ?";
+                rangeArgs = new String[]{String.valueOf(bounds[i - 1])};
+            } else {
+                range = ContactsContract.Data.CONTACT_ID + " >= ? AND " + ContactsContract.Data.CONTACT_ID + " < ?";
+                rangeArgs = new String[]{String.valueOf(bounds[i - 1]), String.valueOf(bounds[i])};
+            }
+            partitions.add(new Callable<ArrayList<Contact>>() {
+                @Override
+                public ArrayList<Contact> call() {
+                    // Each range is read in identifier order, the order asked for is applied to all of them after.
+                    return getContactsFrom(getCursor(query, range, rangeArgs, ContactsContract.Data.CONTACT_ID));
+                }
+            });
+        }
+
+        ArrayList<Future<ArrayList<Contact>>> futures = new ArrayList<>(partitions.size() - 1);
+        try {
+            for (int i = 1; i < partitions.size(); i++) {
+                futures.add(POOL.submit(partitions.get(i)));
+            }
+            ArrayList<Contact> contacts = partitions.get(0).call();
+            for (Future<ArrayList<Contact>> future : futures) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                contacts.addAll(future.get());
+            }
+            return contacts;
+        } catch (InterruptedException e) {
+            // The task was cancelled, its result is dropped anyway.
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            // Stops the ranges still being read when the call is interrupted or one of them failed.
+            for (Future<ArrayList<Contact>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    protected boolean isSortedByProvider(String query) {
+        return false;
+    }
+
+    /**
+     * Returns the identifiers of all the contacts in ascending order, a single column read from
+     * the index of the contacts table
+     */
+    private int[] getContactIds() {
+        long start = PerformanceStats.begin(PerformanceStats.QUERY);
+        Cursor cursor = contentResolver.query(ContactsContract.Contacts.CONTENT_URI, new String[]{ContactsContract.Contacts._ID},
+                null, null, ContactsContract.Contacts._ID + " ASC");
+        PerformanceStats.end(PerformanceStats.QUERY, start);
+        if (cursor == null) {
+            return new int[0];
+        }
+        int[] ids = new int[cursor.getCount()];
+        int count = 0;
+        while (count < ids.length && cursor.moveToNext()) {
+            ids[count++] = cursor.getInt(0);
+        }
+        cursor.close();
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Returns the identifiers splitting the contacts into ranges of about as many contacts each,
+     * or none if there are too few contacts to be worth splitting
+     * @param ids the identifiers of the contacts, in ascending order
+     * @return the first identifier of each range but the first
+     */
+    static int[] getPartitionBounds(int[] ids, int maxPartitions, int minPartitionContacts) {
+        int partitions = Math.min(maxPartitions, ids.length / minPartitionContacts);
+        if (partitions < 2) {
+            return new int[0];
+        }
+        int[] bounds = new int[partitions - 1];
+        for (int i = 1; i < partitions; i++) {
+            bounds[i - 1] = ids[(int) ((long) ids.length * i / partitions)];
+        }
+        return bounds;
+    }
+}
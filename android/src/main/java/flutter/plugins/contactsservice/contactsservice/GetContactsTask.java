@@ -3,21 +3,21 @@ package flutter.plugins.contactsservice.contactsservice;
 import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.provider.ContactsContract;
 import android.text.TextUtils;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import io.flutter.plugin.common.MethodChannel;
 
-import static flutter.plugins.contactsservice.contactsservice.ContactsServicePlugin.loadContactPhotoHighRes;
-
 @TargetApi(Build.VERSION_CODES.CUPCAKE)
 public  class GetContactsTask extends AsyncTask<Object, Void, ArrayList<HashMap>> {
 
@@ -56,59 +56,235 @@ public  class GetContactsTask extends AsyncTask<Object, Void, ArrayList<HashMap>
 
 
 
+    /**
+     * Mime type and columns read for each field that can be requested
+     */
+    private static final HashMap<String, String> FIELD_MIMETYPES = new HashMap<>();
+    private static final HashMap<String, String[]> FIELD_COLUMNS = new HashMap<>();
+
+    static {
+        addField(Contact.FIELD_NAME, ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME,
+                ContactsContract.CommonDataKinds.StructuredName.MIDDLE_NAME,
+                ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME,
+                ContactsContract.CommonDataKinds.StructuredName.PREFIX,
+                ContactsContract.CommonDataKinds.StructuredName.SUFFIX);
+        addField(Contact.FIELD_NOTE, ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.Note.NOTE);
+        addField(Contact.FIELD_PHONES, ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.Phone.NUMBER,
+                ContactsContract.CommonDataKinds.Phone.TYPE);
+        addField(Contact.FIELD_EMAILS, ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.Email.ADDRESS,
+                ContactsContract.CommonDataKinds.Email.TYPE,
+                ContactsContract.CommonDataKinds.Email.LABEL);
+        addField(Contact.FIELD_ORGANIZATION, ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.Organization.COMPANY,
+                ContactsContract.CommonDataKinds.Organization.TITLE);
+        addField(Contact.FIELD_POSTAL_ADDRESSES, ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.StructuredPostal.TYPE,
+                ContactsContract.CommonDataKinds.StructuredPostal.LABEL,
+                ContactsContract.CommonDataKinds.StructuredPostal.STREET,
+                ContactsContract.CommonDataKinds.StructuredPostal.CITY,
+                ContactsContract.CommonDataKinds.StructuredPostal.REGION,
+                ContactsContract.CommonDataKinds.StructuredPostal.POSTCODE,
+                ContactsContract.CommonDataKinds.StructuredPostal.COUNTRY);
+        addField(Contact.FIELD_BIRTHDAY, ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.Event.TYPE,
+                ContactsContract.CommonDataKinds.Event.START_DATE);
+    }
+
+    private static void addField(String field, String mimeType, String... columns) {
+        FIELD_MIMETYPES.put(field, mimeType);
+        FIELD_COLUMNS.put(field, columns);
+    }
+
     protected final ContentResolver contentResolver;
-    private MethodChannel.Result getContactResult;
+    protected final MethodChannel.Result getContactResult;
     private boolean withThumbnails;
     private boolean photoHighResolution;
-    private boolean orderByGivenName;
+    /** One of the {@link ContactOrder} orders, or null to keep the order of the provider */
+    private final String order;
+    /**
+     * Sort order of the queries, which keeps the rows of each contact together and returns the
+     * contacts in {@link #order} when the provider can sort them so
+     */
+    protected final String sortOrder;
+    /** Whether the queries return the contacts in {@link #order} */
+    private final boolean sortedByQuery;
+    private final Set<String> fields;
+    /**
+     * Whether the thumbnails are read by the queries of the rows, along with the other details,
+     * rather than with a query per contact once they are read
+     */
+    private final boolean inlineThumbnails;
+    private final ContactsCache cache;
+    protected final String[] projection;
+    protected final String mimeTypeSelection;
+    protected final String[] mimeTypeSelectionArgs;
 
     public GetContactsTask(ContentResolver contentResolver,MethodChannel.Result result, boolean withThumbnails, boolean photoHighResolution, boolean orderByGivenName){
+        this(contentResolver, result, withThumbnails, photoHighResolution, orderByGivenName, null);
+    }
+
+    public GetContactsTask(ContentResolver contentResolver,MethodChannel.Result result, boolean withThumbnails, boolean photoHighResolution, boolean orderByGivenName, Set<String> fields){
+        this(contentResolver, result, withThumbnails, photoHighResolution, orderByGivenName, fields, null);
+    }
+
+    public GetContactsTask(ContentResolver contentResolver,MethodChannel.Result result, boolean withThumbnails, boolean photoHighResolution, boolean orderByGivenName, Set<String> fields, ContactsCache cache){
+        this(contentResolver, result, withThumbnails, photoHighResolution, ContactOrder.get(null, orderByGivenName), fields, cache);
+    }
+
+    /**
+     * @param order one of the {@link ContactOrder} orders, or null to keep the order of the provider
+     * @param fields the fields to read, or null to read all of them. The identifier and display name are always read.
+     * @param cache the cache to read all the contacts from, or null to always read them from the provider.
+     *              It is only used when all the fields of all the contacts are wanted.
+     */
+    public GetContactsTask(ContentResolver contentResolver,MethodChannel.Result result, boolean withThumbnails, boolean photoHighResolution, String order, Set<String> fields, ContactsCache cache){
         this.contentResolver = contentResolver;
+        this.cache = cache;
         this.getContactResult = result;
         this.withThumbnails = withThumbnails;
         this.photoHighResolution = photoHighResolution;
-        this.orderByGivenName = orderByGivenName;
+        this.order = order;
+        String providerSortOrder = ContactOrder.getSortOrder(order);
+        this.sortedByQuery = providerSortOrder != null;
+        this.sortOrder = sortedByQuery ? providerSortOrder : ContactsContract.Data.CONTACT_ID;
+        this.fields = fields;
+        this.inlineThumbnails = withThumbnails && !photoHighResolution;
+
+        String[] projection;
+        String mimeTypeSelection;
+        String[] mimeTypeSelectionArgs;
+        if (fields == null) {
+            projection = PROJECTION;
+            mimeTypeSelection = MIMETYPE_SELECTION;
+            mimeTypeSelectionArgs = MIMETYPE_SELECTION_ARGS;
+        } else {
+            LinkedHashSet<String> columns = new LinkedHashSet<>();
+            columns.add(ContactsContract.Data.CONTACT_ID);
+            columns.add(ContactsContract.Contacts.DISPLAY_NAME);
+            columns.add(ContactsContract.Data.MIMETYPE);
+            ArrayList<String> mimeTypes = new ArrayList<>();
+            StringBuilder selection = new StringBuilder();
+            for (String field : fields) {
+                if (!FIELD_MIMETYPES.containsKey(field))
+                    continue;
+                columns.addAll(Arrays.asList(FIELD_COLUMNS.get(field)));
+                selection.append(mimeTypes.isEmpty() ? "" : " OR ").append(ContactsContract.Data.MIMETYPE).append("=?");
+                mimeTypes.add(FIELD_MIMETYPES.get(field));
+            }
+            if (mimeTypes.isEmpty()) {
+                // Only the identifier and display name are wanted, which every name row carries.
+                selection.append(ContactsContract.Data.MIMETYPE).append("=?");
+                mimeTypes.add(ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE);
+            }
+            projection = columns.toArray(new String[0]);
+            mimeTypeSelection = selection.toString();
+            mimeTypeSelectionArgs = mimeTypes.toArray(new String[0]);
+        }
+
+        if (inlineThumbnails) {
+            // The photo rows of all the raw contacts are read, only the one of the contact is kept.
+            projection = Arrays.copyOf(projection, projection.length + 3);
+            projection[projection.length - 3] = ContactsContract.Data._ID;
+            projection[projection.length - 2] = ContactsContract.Contacts.PHOTO_ID;
+            projection[projection.length - 1] = ContactsContract.CommonDataKinds.Photo.PHOTO;
+            mimeTypeSelection += " OR " + ContactsContract.Data.MIMETYPE + "=?";
+            mimeTypeSelectionArgs = Arrays.copyOf(mimeTypeSelectionArgs, mimeTypeSelectionArgs.length + 1);
+            mimeTypeSelectionArgs[mimeTypeSelectionArgs.length - 1] = ContactsContract.CommonDataKinds.Photo.CONTENT_ITEM_TYPE;
+        }
+        this.projection = projection;
+        this.mimeTypeSelection = mimeTypeSelection;
+        this.mimeTypeSelectionArgs = mimeTypeSelectionArgs;
     }
 
     @TargetApi(Build.VERSION_CODES.ECLAIR)
     protected ArrayList<HashMap> doInBackground(Object... params) {
-        ArrayList<Contact> contacts;
+        ArrayList<Contact> contacts = readContacts((String) params[0]);
+        if (contacts == null)
+            return null;
 
-//            contacts = getContactsFrom(getCursorForPhone(((String) params[0])));
+        //Transform the list of contacts to a list of Map
+        long start = PerformanceStats.begin(PerformanceStats.TO_MAP);
+        ArrayList<HashMap> contactMaps = new ArrayList<>();
+        for(Contact c : contacts){
+            contactMaps.add(c.toMap(fields));
+        }
+        PerformanceStats.end(PerformanceStats.TO_MAP, start);
+
+        return contactMaps;
+    }
 
-        contacts = getContactsFrom(getCursor(((String) params[0])));
+    /**
+     * Reads the contacts matching the query, with their avatars if asked for, in the order asked for
+     * @return the contacts, or null if the task was cancelled while reading them
+     */
+    @TargetApi(Build.VERSION_CODES.ECLAIR)
+    ArrayList<Contact> readContacts(String query) {
+        return complete(findContacts(query), isSortedByProvider(query), readsThumbnails(query));
+    }
 
-        if (withThumbnails) {
+    /**
+     * Reads the given contacts like {@link #readContacts(String)} does, in a single query per
+     * {@link #MAX_CONTACT_IDS} identifiers
+     */
+    @TargetApi(Build.VERSION_CODES.ECLAIR)
+    ArrayList<Contact> readContactsById(List<String> contactIds) {
+        if (contactIds.isEmpty())
+            return new ArrayList<>();
+        return complete(getContactsFrom(getCursorForContacts(contactIds)), false, inlineThumbnails);
+    }
+
+    /**
+     * Sets the avatars of the contacts if asked for and not read yet, and sorts them unless the provider did
+     * @param thumbnailsRead whether the contacts were read with their thumbnails
+     * @return the contacts, or null if the task was cancelled while reading the avatars
+     */
+    @TargetApi(Build.VERSION_CODES.ECLAIR)
+    private ArrayList<Contact> complete(ArrayList<Contact> contacts, boolean sorted, boolean thumbnailsRead) {
+        if (contacts == null || Thread.currentThread().isInterrupted())
+            return null;
+
+        if (withThumbnails && !thumbnailsRead) {
+            ArrayList<Integer> identifiers = new ArrayList<>(contacts.size());
+            for (Contact c : contacts) {
+                identifiers.add(c.identifier);
+            }
+            HashMap<Integer, byte[]> avatars;
+            try {
+                // As stored, like the thumbnails read along with the rows.
+                avatars = new AvatarLoader(contentResolver, TaskScheduler.PRIORITY_INTERACTIVE, null, photoHighResolution, true, 0)
+                        .load(identifiers, AvatarLoader.DEFAULT_CONCURRENCY);
+            } catch (InterruptedException e) {
+                // The task was cancelled, its result is dropped anyway.
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            long bytes = 0;
             for(Contact c : contacts){
-                final byte[] avatar = loadContactPhotoHighRes(
-                        c.identifier, photoHighResolution, contentResolver);
+                final byte[] avatar = avatars.get(c.identifier);
                 if (avatar != null) {
                     c.avatar = avatar;
+                    bytes += avatar.length;
                 } else {
                     // To stay backwards-compatible, return an empty byte array rather than `null`.
                     c.avatar = new byte[0];
                 }
             }
+            PerformanceStats.count(PerformanceStats.BYTES, bytes);
         }
 
-        if (orderByGivenName)
+        if (!sorted)
         {
-            Comparator<Contact> compareByGivenName = new Comparator<Contact>() {
-                @Override
-                public int compare(Contact contactA, Contact contactB) {
-                    return contactA.compareTo(contactB);
-                }
-            };
-            Collections.sort(contacts,compareByGivenName);
-        }
-
-        //Transform the list of contacts to a list of Map
-        ArrayList<HashMap> contactMaps = new ArrayList<>();
-        for(Contact c : contacts){
-            contactMaps.add(c.toMap());
+            long start = PerformanceStats.begin(PerformanceStats.SORT);
+            ContactOrder.sort(contacts, order);
+            PerformanceStats.end(PerformanceStats.SORT, start);
         }
 
-        return contactMaps;
+        PerformanceStats.count(PerformanceStats.CONTACTS, contacts.size());
+        return contacts;
     }
 
     protected void onPostExecute(ArrayList<HashMap> result) {
@@ -117,92 +293,252 @@ public  class GetContactsTask extends AsyncTask<Object, Void, ArrayList<HashMap>
 
 
     /**
-     * Builds the list of contacts from the cursor
+     * Reads the contacts matching the query, from the cache when it can be used
+     * @return the contacts, or null if the thread was interrupted while reading the cache
+     */
+    protected ArrayList<Contact> findContacts(String query) {
+//            contacts = getContactsFrom(getCursorForPhone(((String) params[0])));
+
+        if (usesCache(query)) {
+            // The cache holds whole contacts without their thumbnails, whatever this task returns.
+            GetContactsTask reader = new GetContactsTask(contentResolver, null, false, false, false);
+            return cache.getContacts(reader);
+        }
+        return getContactsFrom(getCursor(query));
+    }
+
+    protected boolean usesCache(String query) {
+        return cache != null && query == null && fields == null;
+    }
+
+    /**
+     * Returns whether {@link #findContacts} returns the contacts already in {@link #order},
+     * as {@link #getCursor} sorts them when the provider can
+     */
+    protected boolean isSortedByProvider(String query) {
+        return sortedByQuery && !usesCache(query);
+    }
+
+    /**
+     * Returns whether {@link #findContacts} reads the thumbnails of the contacts along with
+     * their other details, as {@link #getCursor} does unless the high resolution photos are wanted
+     */
+    protected boolean readsThumbnails(String query) {
+        return inlineThumbnails && !usesCache(query);
+    }
+
+    /**
+     * Receives the contacts read from a cursor, one at a time
+     */
+    interface ContactSink {
+        void put(Contact contact);
+    }
+
+    /**
+     * Builds the list of contacts from the cursor, see {@link #readContacts(Cursor, ContactSink)}
      * @param cursor
-     * @return the list of contacts
+     * @return the list of contacts, which misses some if the thread was interrupted
+     */
+    ArrayList<Contact> getContactsFrom(Cursor cursor) {
+        final ArrayList<Contact> contacts = new ArrayList<>();
+        readContacts(cursor, new ContactSink() {
+            @Override
+            public void put(Contact contact) {
+                contacts.add(contact);
+            }
+        });
+        return contacts;
+    }
+
+    /**
+     * Aggregates the rows of the cursor into contacts, and hands each contact to the sink as
+     * soon as its last row is read. The rows of a contact must be next to each other, as
+     * {@link #sortOrder} keeps them, so only the contact being read is held here however many
+     * the cursor returns. When the thread is interrupted, as it is when the task is cancelled,
+     * it stops reading and closes the cursor at once.
      */
-    private ArrayList<Contact> getContactsFrom(Cursor cursor) {
-        HashMap<Integer, Contact> map = new LinkedHashMap<>();
+    void readContacts(Cursor cursor, ContactSink sink) {
+        if (cursor == null)
+            return;
+        DataColumns columns = new DataColumns(cursor);
+        Contact contact = null;
+        // Moving to a row and reading it alternate, so the moves are timed row by row, only when
+        // recorded, and the aggregation is what remains of the whole loop.
+        long start = PerformanceStats.begin(PerformanceStats.AGGREGATION);
+        boolean timed = start != 0;
+        long iterationNanos = 0;
+        int rows = 0;
 
-        while (cursor != null && cursor.moveToNext()) {
-            int columnIndex = cursor.getColumnIndex(ContactsContract.Data.CONTACT_ID);
-            Integer contactId = cursor.getInt(columnIndex);
+        while (!Thread.currentThread().isInterrupted()) {
+            long moveStart = timed ? System.nanoTime() : 0;
+            boolean moved = cursor.moveToNext();
+            if (timed)
+                iterationNanos += System.nanoTime() - moveStart;
+            if (!moved)
+                break;
+            rows++;
+            int contactId = cursor.getInt(columns.contactId);
 
-            if (!map.containsKey(contactId)) {
-                map.put(contactId, new Contact(contactId));
+            if (contact == null || contact.identifier != contactId) {
+                if (contact != null)
+                    sink.put(contact);
+                contact = new Contact(contactId);
             }
-            Contact contact = map.get(contactId);
 
-            String mimeType = cursor.getString(cursor.getColumnIndex(ContactsContract.Data.MIMETYPE));
-            contact.displayName = cursor.getString(cursor.getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME));
+            readRow(cursor, columns, contact);
+        }
+
+        // The last contact may miss rows if the read was interrupted.
+        if (contact != null && !Thread.currentThread().isInterrupted())
+            sink.put(contact);
+        cursor.close();
+
+        if (timed) {
+            PerformanceStats.end(PerformanceStats.AGGREGATION, start + iterationNanos);
+            PerformanceStats.recordNanos(PerformanceStats.CURSOR_ITERATION, iterationNanos);
+            PerformanceStats.count(PerformanceStats.ROWS, rows);
+        }
+    }
+
+    /**
+     * Copies the data of the current row of the cursor into the contact it belongs to
+     */
+    static void readRow(Cursor cursor, DataColumns columns, Contact contact) {
+        String mimeType = cursor.getString(columns.mimeType);
+        contact.displayName = cursor.getString(columns.displayName);
 
+        switch (mimeType) {
             //NAMES
-            if (mimeType.equals(ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE)) {
-                contact.givenName = cursor.getString(cursor.getColumnIndex(ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME));
-                contact.middleName = cursor.getString(cursor.getColumnIndex(ContactsContract.CommonDataKinds.StructuredName.MIDDLE_NAME));
-                contact.familyName = cursor.getString(cursor.getColumnIndex(ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME));
-                contact.prefix = cursor.getString(cursor.getColumnIndex(ContactsContract.CommonDataKinds.StructuredName.PREFIX));
-                contact.suffix = cursor.getString(cursor.getColumnIndex(ContactsContract.CommonDataKinds.StructuredName.SUFFIX));
-            }
+            case ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE:
+                contact.givenName = cursor.getString(columns.givenName);
+                contact.middleName = cursor.getString(columns.middleName);
+                contact.familyName = cursor.getString(columns.familyName);
+                contact.prefix = cursor.getString(columns.prefix);
+                contact.suffix = cursor.getString(columns.suffix);
+                break;
             // NOTE
-            else if (mimeType.equals(ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE)) {
-                contact.note = cursor.getString(cursor.getColumnIndex(ContactsContract.CommonDataKinds.Note.NOTE));
-            }
+            case ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE:
+                contact.note = cursor.getString(columns.note);
+                break;
             //PHONES
-            else if (mimeType.equals(ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE)){
-                String phoneNumber = cursor.getString(cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.NUMBER));
-                int type = cursor.getInt(cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.TYPE));
+            case ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE: {
+                String phoneNumber = cursor.getString(columns.phoneNumber);
+                int type = cursor.getInt(columns.phoneType);
                 if (!TextUtils.isEmpty(phoneNumber)){
                     contact.phones.add(new Item(Item.getPhoneLabel(type),phoneNumber));
                 }
+                break;
             }
             //MAILS
-            else if (mimeType.equals(ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE)) {
-                String email = cursor.getString(cursor.getColumnIndex(ContactsContract.CommonDataKinds.Email.ADDRESS));
-                int type = cursor.getInt(cursor.getColumnIndex(ContactsContract.CommonDataKinds.Email.TYPE));
+            case ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE: {
+                String email = cursor.getString(columns.emailAddress);
+                int type = cursor.getInt(columns.emailType);
                 if (!TextUtils.isEmpty(email)) {
-                    contact.emails.add(new Item(Item.getEmailLabel(type, cursor),email));
+                    contact.emails.add(new Item(Item.getEmailLabel(type, cursor, columns),email));
                 }
+                break;
             }
             //ORG
-            else if (mimeType.equals(ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE)) {
-                contact.company = cursor.getString(cursor.getColumnIndex(ContactsContract.CommonDataKinds.Organization.COMPANY));
-                contact.jobTitle = cursor.getString(cursor.getColumnIndex(ContactsContract.CommonDataKinds.Organization.TITLE));
-            }
+            case ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE:
+                contact.company = cursor.getString(columns.company);
+                contact.jobTitle = cursor.getString(columns.jobTitle);
+                break;
             //ADDRESSES
-            else if (mimeType.equals(ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE)) {
-                contact.postalAddresses.add(new PostalAddress(cursor));
+            case ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE:
+                contact.postalAddresses.add(new PostalAddress(cursor, columns));
+                break;
+            // THUMBNAIL, of the photo row chosen for the contact among those of its raw contacts
+            case ContactsContract.CommonDataKinds.Photo.CONTENT_ITEM_TYPE: {
+                if (columns.photo != -1 && cursor.getLong(columns.dataId) == cursor.getLong(columns.photoId)) {
+                    byte[] photo = cursor.getBlob(columns.photo);
+                    if (photo != null) {
+                        contact.avatar = photo;
+                    }
+                }
+                break;
             }
             // BIRTHDAY
-            else if (mimeType.equals(ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE)) {
-                int eventType = cursor.getInt(cursor.getColumnIndex(ContactsContract.CommonDataKinds.Event.TYPE));
+            case ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE: {
+                int eventType = cursor.getInt(columns.eventType);
                 if (eventType == ContactsContract.CommonDataKinds.Event.TYPE_BIRTHDAY) {
-                    contact.birthday = cursor.getString(cursor.getColumnIndex(ContactsContract.CommonDataKinds.Event.START_DATE));
+                    contact.birthday = cursor.getString(columns.eventStartDate);
                 }
+                break;
             }
         }
+    }
 
-        if(cursor != null)
-            cursor.close();
 
-        return new ArrayList<>(map.values());
-    }
+    /**
+     * Most contact identifiers bound in a single query, keeping well below SQLite's limit of 999 parameters
+     */
+    protected static final int MAX_CONTACT_IDS = 500;
+
+    protected static final String MIMETYPE_SELECTION = ContactsContract.Data.MIMETYPE + "=? OR " + ContactsContract.Data.MIMETYPE + "=? OR "
+            + ContactsContract.Data.MIMETYPE + "=? OR " + ContactsContract.Data.MIMETYPE + "=? OR "
+            + ContactsContract.Data.MIMETYPE + "=? OR " + ContactsContract.Data.MIMETYPE + "=? OR "
+            + ContactsContract.Data.MIMETYPE + "=?";
 
+    protected static final String[] MIMETYPE_SELECTION_ARGS = new String[] { ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE, ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE, ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE, ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE, ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE, };
 
     protected Cursor getCursor(String query) {
-        String selection = ContactsContract.Data.MIMETYPE + "=? OR " + ContactsContract.Data.MIMETYPE + "=? OR "
-                + ContactsContract.Data.MIMETYPE + "=? OR " + ContactsContract.Data.MIMETYPE + "=? OR "
-                + ContactsContract.Data.MIMETYPE + "=? OR " + ContactsContract.Data.MIMETYPE + "=? OR "
-                + ContactsContract.Data.MIMETYPE + "=?";
-        String[] selectionArgs = new String[] { ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE, ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE,
-                ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE, ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE, ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE,
-                ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE, ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE, };
+        return getCursor(query, null, null, sortOrder);
+    }
+
+    /**
+     * Returns a cursor over the rows of the contacts matching the query
+     * @param range a selection of the contacts to read among them, or null to read all of them
+     * @param rangeArgs the arguments of the range selection
+     */
+    protected Cursor getCursor(String query, String range, String[] rangeArgs, String sortOrder) {
+        String selection = mimeTypeSelection;
+        ArrayList<String> selectionArgs = new ArrayList<>(Arrays.asList(mimeTypeSelectionArgs));
         if(query != null){
-            selectionArgs = new String[]{query + "%"};
-            selection = ContactsContract.Contacts.DISPLAY_NAME_PRIMARY + " LIKE ?";
+            selection = ContactsContract.Contacts.DISPLAY_NAME_PRIMARY + " LIKE ? AND (" + selection + ")";
+            selectionArgs.add(0, query + "%");
+        }
+        if (range != null) {
+            selection = range + " AND (" + selection + ")";
+            selectionArgs.addAll(0, Arrays.asList(rangeArgs));
+        }
+
+        return queryData(selection, selectionArgs.toArray(new String[0]), sortOrder);
+    }
+
+    /**
+     * Returns a cursor over the rows of the given contacts, ordered by contact identifier within
+     * each chunk of {@link #MAX_CONTACT_IDS} identifiers
+     */
+    protected Cursor getCursorForContacts(List<String> contactIds) {
+        if (contactIds.size() > MAX_CONTACT_IDS) {
+            Cursor[] cursors = new Cursor[(contactIds.size() + MAX_CONTACT_IDS - 1) / MAX_CONTACT_IDS];
+            for (int i = 0; i < cursors.length; i++) {
+                int end = Math.min((i + 1) * MAX_CONTACT_IDS, contactIds.size());
+                cursors[i] = getCursorForContacts(contactIds.subList(i * MAX_CONTACT_IDS, end));
+            }
+            return new MergeCursor(cursors);
+        }
+
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < contactIds.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
         }
+        String selection = ContactsContract.Data.CONTACT_ID + " IN (" + placeholders + ") AND (" + mimeTypeSelection + ")";
+        ArrayList<String> selectionArgs = new ArrayList<>(contactIds);
+        selectionArgs.addAll(Arrays.asList(mimeTypeSelectionArgs));
 
-        return contentResolver.query(ContactsContract.Data.CONTENT_URI, PROJECTION, selection, selectionArgs, null);
+        return queryData(selection, selectionArgs.toArray(new String[0]), ContactsContract.Data.CONTACT_ID + " ASC");
+    }
+
+    private Cursor queryData(String selection, String[] selectionArgs, String sortOrder) {
+        long start = PerformanceStats.begin(PerformanceStats.QUERY);
+        try {
+            return contentResolver.query(ContactsContract.Data.CONTENT_URI, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            PerformanceStats.end(PerformanceStats.QUERY, start);
+        }
     }
 
 }
\ No newline at end of file
@@ -7,12 +7,13 @@ import android.provider.BaseColumns;
 import android.provider.ContactsContract;
 
 import java.util.ArrayList;
+import java.util.Set;
 
 import io.flutter.plugin.common.MethodChannel;
 
 class GetContactsTaskFromPhone extends GetContactsTask {
-    public GetContactsTaskFromPhone(ContentResolver contentResolver, MethodChannel.Result result, boolean withThumbnails, boolean photoHighResolution, boolean orderByGivenName) {
-        super(contentResolver, result, withThumbnails, photoHighResolution, orderByGivenName);
+    public GetContactsTaskFromPhone(ContentResolver contentResolver, MethodChannel.Result result, boolean withThumbnails, boolean photoHighResolution, String order, Set<String> fields) {
+        super(contentResolver, result, withThumbnails, photoHighResolution, order, fields, null);
     }
 
     @Override
@@ -31,12 +32,14 @@ class GetContactsTaskFromPhone extends GetContactsTask {
         if (identifierCursor!= null)
             identifierCursor.close();
 
-        if (!contactIds.isEmpty()) {
-            String contactIdsListString = contactIds.toString().replace("[", "(").replace("]", ")");
-            String contactSelection = ContactsContract.Data.CONTACT_ID + " IN " + contactIdsListString;
-            return contentResolver.query(ContactsContract.Data.CONTENT_URI, PROJECTION, contactSelection, null, null);
-        }
+        if (!contactIds.isEmpty())
+            return getCursorForContacts(contactIds);
 
         return null;
     }
+
+    @Override
+    protected boolean isSortedByProvider(String query) {
+        return false;
+    }
 }
@@ -54,6 +54,17 @@ public class Item{
     }
 
     public static String getEmailLabel(int type, Cursor cursor) {
+        // Only the label column is looked up, and only for a custom label.
+        if (type == CommonDataKinds.Email.TYPE_CUSTOM) {
+            return getCustomLabel(cursor.getString(cursor.getColumnIndex(CommonDataKinds.Email.LABEL)));
+        }
+        return getEmailLabel(type, cursor, null);
+    }
+
+    /**
+     * @param columns the columns of the cursor, only read for a custom label
+     */
+    static String getEmailLabel(int type, Cursor cursor, DataColumns columns) {
         switch (type) {
             case CommonDataKinds.Email.TYPE_HOME:
                 return "home";
@@ -62,14 +73,16 @@ public class Item{
             case CommonDataKinds.Email.TYPE_MOBILE:
                 return "mobile";
             case CommonDataKinds.Email.TYPE_CUSTOM:
-                if (cursor.getString(cursor.getColumnIndex(CommonDataKinds.Email.LABEL)) != null) {
-                    return cursor.getString(cursor.getColumnIndex(CommonDataKinds.Email.LABEL)).toLowerCase();
-                } else return "";
+                return getCustomLabel(cursor.getString(columns.emailLabel));
             default:
                 return "other";
         }
     }
 
+    private static String getCustomLabel(String label) {
+        return label != null ? label.toLowerCase() : "";
+    }
+
     public static int stringToPhoneType(String label) {
         if (label != null) {
             switch (label) {
@@ -107,8 +120,10 @@ public class Item{
                     return CommonDataKinds.Email.TYPE_WORK;
                 case "mobile":
                     return CommonDataKinds.Email.TYPE_MOBILE;
-                default:
+                case "other":
                     return CommonDataKinds.Email.TYPE_OTHER;
+                default:
+                    return CommonDataKinds.Email.TYPE_CUSTOM;
             }
         }
         return CommonDataKinds.Email.TYPE_OTHER;
@@ -0,0 +1,180 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Records where the time of the plugin goes, phase by phase, along with the sizes of what it
+ * reads and returns, and reports their distributions to the Dart side.
+ * <p>
+ * Each phase is timed between {@link #begin} and {@link #end}, which also emit an
+ * {@link Trace} section of the same name, so that the phases line up with the rest of the
+ * app in systrace and Perfetto. Disabled by default: {@link #begin} then only reads a volatile
+ * flag, and nothing is recorded or traced.
+ * <p>
+ * Only the last {@link #WINDOW} samples of a metric are kept for its percentiles, while its
+ * count and sum cover every sample since the last reset.
+ */
+final class PerformanceStats {
+
+    /** Query of the contacts provider, until it returns a cursor */
+    static final String QUERY = "query";
+    /** Moving through the rows of a cursor, which fills its windows from the provider */
+    static final String CURSOR_ITERATION = "cursorIteration";
+    /** Reading the rows of a cursor into contacts */
+    static final String AGGREGATION = "aggregation";
+    /** Reading an avatar and decoding or downscaling it */
+    static final String PHOTO_DECODE = "photoDecode";
+    static final String SORT = "sort";
+    /** Conversion of the contacts into the maps sent over the channel */
+    static final String TO_MAP = "toMap";
+    static final String APPLY_BATCH = "applyBatch";
+    /** Streaming a large photo to the display photo of a contact */
+    static final String PHOTO_WRITE = "photoWrite";
+
+    /** Rows read from a cursor */
+    static final String ROWS = "rows";
+    /** Contacts returned by a call */
+    static final String CONTACTS = "contacts";
+    /** Bytes of the avatars and encoded contacts returned by a call */
+    static final String BYTES = "bytes";
+    /** Tasks waiting for a thread when a read is scheduled */
+    static final String QUEUE_DEPTH = "queueDepth";
+    /** Operations applied in a batch */
+    static final String OPERATIONS = "operations";
+
+    /** Samples kept per metric for its percentiles */
+    static final int WINDOW = 1024;
+
+    private static volatile boolean enabled;
+    private static final HashMap<String, Metric> metrics = new HashMap<>();
+
+    private PerformanceStats() {}
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean enabled) {
+        PerformanceStats.enabled = enabled;
+    }
+
+    /**
+     * Starts timing a phase on the current thread
+     * @return the start time to give to {@link #end}, or 0 when disabled
+     */
+    static long begin(String phase) {
+        if (!enabled) {
+            return 0;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(phase);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Ends the phase started by {@link #begin} on the same thread, and records its duration
+     */
+    static void end(String phase, long start) {
+        if (start == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+        record(phase, nanos / 1000);
+    }
+
+    /**
+     * Records a duration measured by the caller, for phases interleaved with others which
+     * cannot be timed as a single section
+     */
+    static void recordNanos(String phase, long nanos) {
+        if (enabled) {
+            record(phase, nanos / 1000);
+        }
+    }
+
+    /**
+     * Records a count or a size, such as the rows read by a query
+     */
+    static void count(String metric, long value) {
+        if (enabled) {
+            record(metric, value);
+        }
+    }
+
+    private static void record(String name, long value) {
+        Metric metric;
+        synchronized (metrics) {
+            metric = metrics.get(name);
+            if (metric == null) {
+                metric = new Metric();
+                metrics.put(name, metric);
+            }
+        }
+        metric.add(value);
+    }
+
+    /**
+     * Returns the distribution of each metric: its count, sum, max, p50, p95 and p99. Durations
+     * are in microseconds.
+     * @param reset whether to start over afterwards
+     */
+    static HashMap<String, HashMap<String, Object>> get(boolean reset) {
+        HashMap<String, HashMap<String, Object>> stats = new LinkedHashMap<>();
+        synchronized (metrics) {
+            for (String name : metrics.keySet()) {
+                stats.put(name, metrics.get(name).toMap());
+            }
+            if (reset) {
+                metrics.clear();
+            }
+        }
+        return stats;
+    }
+
+    private static class Metric {
+        private final long[] window = new long[WINDOW];
+        private long count;
+        private long sum;
+        private long max;
+
+        synchronized void add(long value) {
+            window[(int) (count % WINDOW)] = value;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        synchronized HashMap<String, Object> toMap() {
+            long[] sorted = Arrays.copyOf(window, (int) Math.min(count, WINDOW));
+            Arrays.sort(sorted);
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("count", count);
+            map.put("sum", sum);
+            map.put("max", max);
+            map.put("p50", percentile(sorted, 50));
+            map.put("p95", percentile(sorted, 95));
+            map.put("p99", percentile(sorted, 99));
+            return map;
+        }
+    }
+
+    /**
+     * Returns the value below which the given percentage of the sorted values fall
+     */
+    static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,106 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.telephony.PhoneNumberUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The phone numbers of all the contacts, hashed by their last digits, to match many numbers at
+ * once, such as those of a call log, without one provider query per number. Numbers sharing
+ * their last digits are then compared with {@link PhoneNumberUtils#compare(String, String)}, as
+ * {@link android.provider.ContactsContract.PhoneLookup} does, so that "+1 555 123 4567" and
+ * "(555) 123-4567" match while numbers written in different formats are not told apart.
+ */
+class PhoneIndex {
+
+    /**
+     * Last digits hashed, as many as the phone lookup of the contacts provider requires to match,
+     * which leaves out any country or trunk prefix
+     */
+    static final int MATCH_DIGITS = 7;
+
+    private static final String[] PROJECTION = {Phone.CONTACT_ID, Phone.NUMBER};
+
+    private final HashMap<String, ArrayList<Entry>> entriesByKey = new HashMap<>();
+
+    /**
+     * Builds the index from a single query of all the phone numbers
+     */
+    static PhoneIndex read(ContentResolver contentResolver) {
+        PhoneIndex index = new PhoneIndex();
+        Cursor cursor = contentResolver.query(Phone.CONTENT_URI, PROJECTION, null, null, null);
+        if (cursor == null)
+            return index;
+        try {
+            int contactIdColumn = cursor.getColumnIndex(Phone.CONTACT_ID);
+            int numberColumn = cursor.getColumnIndex(Phone.NUMBER);
+            while (!Thread.currentThread().isInterrupted() && cursor.moveToNext()) {
+                index.put(cursor.getInt(contactIdColumn), cursor.getString(numberColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return index;
+    }
+
+    void put(int contactId, String number) {
+        String key = getKey(number);
+        if (key == null)
+            return;
+        ArrayList<Entry> entries = entriesByKey.get(key);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            entriesByKey.put(key, entries);
+        }
+        entries.add(new Entry(contactId, number));
+    }
+
+    /**
+     * Returns the identifiers of the contacts having the number, in the order they were added
+     */
+    Set<Integer> find(String number) {
+        LinkedHashSet<Integer> contactIds = new LinkedHashSet<>();
+        String key = getKey(number);
+        ArrayList<Entry> entries = key != null ? entriesByKey.get(key) : null;
+        if (entries == null)
+            return contactIds;
+        for (Entry entry : entries) {
+            if (!contactIds.contains(entry.contactId) && PhoneNumberUtils.compare(number, entry.number)) {
+                contactIds.add(entry.contactId);
+            }
+        }
+        return contactIds;
+    }
+
+    /**
+     * Returns the last {@link #MATCH_DIGITS} digits of the number, or null if it has none
+     */
+    static String getKey(String number) {
+        if (number == null)
+            return null;
+        StringBuilder digits = new StringBuilder(MATCH_DIGITS);
+        for (int i = number.length() - 1; i >= 0 && digits.length() < MATCH_DIGITS; i--) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.length() > 0 ? digits.reverse().toString() : null;
+    }
+
+    private static class Entry {
+        final int contactId;
+        final String number;
+
+        Entry(int contactId, String number) {
+            this.contactId = contactId;
+            this.number = number;
+        }
+    }
+}
@@ -23,13 +23,13 @@ public class PostalAddress {
         this.country = country;
     }
 
-    PostalAddress(Cursor cursor){
-        this.label = getLabel(cursor);
-        this.street = cursor.getString(cursor.getColumnIndex(StructuredPostal.STREET));
-        this.city = cursor.getString(cursor.getColumnIndex(StructuredPostal.CITY));
-        this.postcode = cursor.getString(cursor.getColumnIndex(StructuredPostal.POSTCODE));
-        this.region = cursor.getString(cursor.getColumnIndex(StructuredPostal.REGION));
-        this.country = cursor.getString(cursor.getColumnIndex(StructuredPostal.COUNTRY));
+    PostalAddress(Cursor cursor, DataColumns columns){
+        this.label = getLabel(cursor, columns);
+        this.street = cursor.getString(columns.street);
+        this.city = cursor.getString(columns.city);
+        this.postcode = cursor.getString(columns.postcode);
+        this.region = cursor.getString(columns.region);
+        this.country = cursor.getString(columns.country);
     }
 
     HashMap<String, String> toMap(){
@@ -47,14 +47,14 @@ public class PostalAddress {
         return new PostalAddress(map.get("label"), map.get("street"), map.get("city"), map.get("postcode"), map.get("region"), map.get("country"));
     }
 
-    private String getLabel(Cursor cursor) {
-        switch (cursor.getInt(cursor.getColumnIndex(StructuredPostal.TYPE))) {
+    private String getLabel(Cursor cursor, DataColumns columns) {
+        switch (cursor.getInt(columns.postalType)) {
             case StructuredPostal.TYPE_HOME:
                 return "home";
             case StructuredPostal.TYPE_WORK:
                 return "work";
             case StructuredPostal.TYPE_CUSTOM:
-                final String label = cursor.getString(cursor.getColumnIndex(StructuredPostal.LABEL));
+                final String label = cursor.getString(columns.postalLabel);
                 return label != null ? label : "";
         }
         return "other";
@@ -65,7 +65,8 @@ public class PostalAddress {
             switch (label) {
                 case "home": return CommonDataKinds.StructuredPostal.TYPE_HOME;
                 case "work": return CommonDataKinds.StructuredPostal.TYPE_WORK;
-                default: return CommonDataKinds.StructuredPostal.TYPE_OTHER;
+                case "other": return CommonDataKinds.StructuredPostal.TYPE_OTHER;
+                default: return CommonDataKinds.StructuredPostal.TYPE_CUSTOM;
             }
         }
         return StructuredPostal.TYPE_OTHER;
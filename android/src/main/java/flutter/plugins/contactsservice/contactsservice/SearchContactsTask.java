@@ -0,0 +1,43 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.content.ContentResolver;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Finds the contacts matching a query with the search index of the contacts cache, so that
+ * searching as the user types does not query the provider at every keystroke. Before Android
+ * 4.3, which cannot tell which contacts changed, the provider is queried by name instead.
+ */
+class SearchContactsTask extends GetContactsTask {
+
+    private final ContactsCache cache;
+
+    public SearchContactsTask(ContentResolver contentResolver, MethodChannel.Result result, boolean withThumbnails, boolean photoHighResolution, String order, Set<String> fields, ContactsCache cache) {
+        super(contentResolver, result, withThumbnails, photoHighResolution, order, fields, null);
+        this.cache = cache;
+    }
+
+    @Override
+    protected ArrayList<Contact> findContacts(String query) {
+        if (!ContactChanges.isSupported()) {
+            return super.findContacts(query);
+        }
+        // The cache holds whole contacts, whatever the fields returned by this task.
+        GetContactsTask reader = new GetContactsTask(contentResolver, null, false, false, false);
+        return cache.search(reader, query);
+    }
+
+    @Override
+    protected boolean isSortedByProvider(String query) {
+        return !ContactChanges.isSupported() && super.isSortedByProvider(query);
+    }
+
+    @Override
+    protected boolean readsThumbnails(String query) {
+        return !ContactChanges.isSupported() && super.readsThumbnails(query);
+    }
+}
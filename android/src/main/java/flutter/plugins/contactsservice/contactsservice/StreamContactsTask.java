@@ -0,0 +1,51 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.content.ContentResolver;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Walks the contacts page by page and sends every page to the event sink as soon as it is
+ * aggregated, so the Dart side can decode and display the first contacts while the next
+ * ones are still being read.
+ */
+class StreamContactsTask extends GetContactsPageTask {
+
+    private final EventChannel.EventSink events;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public StreamContactsTask(ContentResolver contentResolver, EventChannel.EventSink events, boolean withThumbnails, boolean photoHighResolution, int batchSize) {
+        super(contentResolver, null, withThumbnails, photoHighResolution, null, batchSize);
+        this.events = events;
+    }
+
+    @Override
+    protected ArrayList<HashMap> doInBackground(Object... params) {
+        while (!isCancelled()) {
+            final ArrayList<HashMap> batch = super.doInBackground(params);
+            if (batch == null || batch.isEmpty())
+                break;
+
+            afterIdentifier = (Integer) batch.get(batch.size() - 1).get("identifier");
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled()) {
+                        events.success(batch);
+                    }
+                }
+            });
+        }
+        return null;
+    }
+
+    @Override
+    protected void onPostExecute(ArrayList<HashMap> result) {
+        events.endOfStream();
+    }
+}
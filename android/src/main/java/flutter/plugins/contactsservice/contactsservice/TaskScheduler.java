@@ -0,0 +1,181 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.os.AsyncTask;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Runs the reads of the plugin, the tasks of a higher priority first, and lets the Dart side
+ * cancel them by the identifier it gave to the request.
+ * <p>
+ * A cancelled task is interrupted, which stops it at the next row it reads and closes its cursor,
+ * and its call completes at once with a {@link #CANCELLED} error. A task scheduled in a
+ * supersede group cancels the previous task of the group, so that a search typed letter by
+ * letter only runs the latest query.
+ * <p>
+ * Only used from the main thread, like {@link AsyncTask} itself.
+ */
+class TaskScheduler {
+
+    /** What the user is waiting for: contacts to list, search or match */
+    static final int PRIORITY_INTERACTIVE = 0;
+    /** What can wait: avatars, which are shown as they come, and the tracking of changes */
+    static final int PRIORITY_BACKGROUND = 1;
+
+    /** Error code of the calls whose task was cancelled */
+    static final String CANCELLED = "CANCELLED";
+
+    /**
+     * A pool only queues a task once all its threads are busy, and the priorities only order the
+     * queued tasks: below this many tasks at once, a background task starts as soon as an
+     * interactive one. The pool is kept small so that a burst of background work, such as
+     * avatar prefetches, does queue and lets the interactive tasks through first.
+     */
+    private static final int MAX_THREADS = 4;
+
+    private final ThreadPoolExecutor pool;
+    private final Executor interactive;
+    private final Executor background;
+    /** Breaks the ties between tasks of the same priority, which run in the order they came */
+    private final AtomicLong sequence = new AtomicLong();
+    private final HashMap<Integer, Request> requestsById = new HashMap<>();
+    private final HashMap<String, Request> requestsByGroup = new HashMap<>();
+
+    TaskScheduler() {
+        this(MAX_THREADS);
+    }
+
+    /**
+     * @param threads the tasks run at the same time, all the others wait in order of priority
+     */
+    TaskScheduler(int threads) {
+        // The queue is unbounded, so the pool never grows past its core threads.
+        pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+        pool.allowCoreThreadTimeOut(true);
+        interactive = executor(PRIORITY_INTERACTIVE);
+        background = executor(PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * Returns an executor running its tasks with the given priority
+     */
+    Executor executor(final int priority) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                PerformanceStats.count(PerformanceStats.QUEUE_DEPTH, pool.getQueue().size());
+                pool.execute(new Entry(command, priority, sequence.getAndIncrement()));
+            }
+        };
+    }
+
+    /**
+     * Executes the task, which must only report to the result once done
+     * @param requestId the identifier to cancel the task with, or null
+     * @param group the supersede group of the task, or null
+     */
+    <P> void schedule(AsyncTask<P, ?, ?> task, int priority, Integer requestId, String group,
+                     MethodChannel.Result result, P... params) {
+        pruneFinished();
+        Request request = new Request(task, result);
+        if (group != null) {
+            Request previous = requestsByGroup.put(group, request);
+            if (previous != null) {
+                previous.cancel("Superseded by a later request");
+            }
+        }
+        if (requestId != null) {
+            requestsById.put(requestId, request);
+        }
+        task.executeOnExecutor(priority == PRIORITY_INTERACTIVE ? interactive : background, params);
+    }
+
+    /**
+     * Cancels the task of the request, if it has not completed yet
+     * @return whether the task was cancelled
+     */
+    boolean cancel(int requestId) {
+        Request request = requestsById.remove(requestId);
+        return request != null && request.cancel("Cancelled by the caller");
+    }
+
+    /**
+     * Forgets the requests that completed, which can no longer be cancelled
+     */
+    private void pruneFinished() {
+        for (Iterator<Request> i = requestsById.values().iterator(); i.hasNext(); ) {
+            if (i.next().isFinished()) {
+                i.remove();
+            }
+        }
+        for (Iterator<Request> i = requestsByGroup.values().iterator(); i.hasNext(); ) {
+            if (i.next().isFinished()) {
+                i.remove();
+            }
+        }
+    }
+
+    private static class Request {
+        final AsyncTask<?, ?, ?> task;
+        final MethodChannel.Result result;
+
+        Request(AsyncTask<?, ?, ?> task, MethodChannel.Result result) {
+            this.task = task;
+            this.result = result;
+        }
+
+        /**
+         * A task is finished once its result was delivered on the main thread, so a task that
+         * completed in the background but was not delivered yet can still be cancelled, and
+         * then never delivers it.
+         */
+        boolean isFinished() {
+            return task.getStatus() == AsyncTask.Status.FINISHED || task.isCancelled();
+        }
+
+        boolean cancel(String message) {
+            if (isFinished()) {
+                return false;
+            }
+            task.cancel(true);
+            result.error(CANCELLED, message, null);
+            return true;
+        }
+    }
+
+    /**
+     * A task of a pool ordered by priority, see {@link AvatarLoader} for the other one
+     */
+    static class Entry implements Runnable, Comparable<Entry> {
+        final Runnable command;
+        final int priority;
+        final long sequence;
+
+        Entry(Runnable command, int priority, long sequence) {
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            command.run();
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
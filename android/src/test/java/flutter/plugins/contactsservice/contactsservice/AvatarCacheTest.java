@@ -0,0 +1,105 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class AvatarCacheTest {
+
+  @Test
+  public void get_loadsEachAvatarOnce() {
+    CountingCache cache = new CountingCache(100);
+
+    byte[] avatar = cache.get(1, false, false, 0);
+
+    assertThat(cache.get(1, false, false, 0)).isSameInstanceAs(avatar);
+    assertThat(cache.get(2, false, false, 0)).isNull();
+    assertThat(cache.get(2, false, false, 0)).isNull();
+    assertThat(cache.loaded).containsExactly(1, 2).inOrder();
+  }
+
+  @Test
+  public void get_evictsTheLeastRecentlyUsedAvatarsBeyondTheBound() {
+    CountingCache cache = new CountingCache(100);
+    cache.get(1, false, false, 0);
+    cache.get(3, false, false, 0);
+    // 1 is used again, so 3 is the least recently used.
+    cache.get(1, false, false, 0);
+
+    cache.get(5, false, false, 0);
+
+    assertThat(cache.bytes()).isEqualTo(80);
+    cache.get(1, false, false, 0);
+    cache.get(3, false, false, 0);
+    assertThat(cache.loaded).containsExactly(1, 3, 5, 3).inOrder();
+  }
+
+  @Test
+  public void invalidate_dropsTheAvatars() {
+    CountingCache cache = new CountingCache(100);
+    cache.get(1, false, false, 0);
+
+    cache.invalidate();
+
+    assertThat(cache.bytes()).isEqualTo(0);
+    cache.get(1, false, false, 0);
+    assertThat(cache.loaded).containsExactly(1, 1).inOrder();
+  }
+
+  @Test
+  public void invalidate_dropsTheAvatarsBeingLoaded() {
+    CountingCache cache = new CountingCache(100);
+    cache.invalidateWhileLoading = true;
+
+    assertThat(cache.get(1, false, false, 0)).isNotNull();
+
+    assertThat(cache.bytes()).isEqualTo(0);
+    cache.invalidateWhileLoading = false;
+    cache.get(1, false, false, 0);
+    assertThat(cache.loaded).containsExactly(1, 1).inOrder();
+  }
+
+  @Test
+  public void close_dropsTheAvatarsAndKeepsNoneAfterwards() {
+    CountingCache cache = new CountingCache(100);
+    cache.get(1, false, false, 0);
+
+    cache.close();
+
+    assertThat(cache.bytes()).isEqualTo(0);
+    assertThat(cache.get(1, false, false, 0)).isNotNull();
+    assertThat(cache.get(1, false, false, 0)).isNotNull();
+    assertThat(cache.bytes()).isEqualTo(0);
+    assertThat(cache.loaded).containsExactly(1, 1, 1).inOrder();
+  }
+
+  /**
+   * Loads an avatar of 40 bytes for the odd identifiers, and none for the even ones
+   */
+  private static class CountingCache extends AvatarCache {
+
+    final ArrayList<Integer> loaded = new ArrayList<>();
+    boolean invalidateWhileLoading;
+
+    CountingCache(int maxBytes) {
+      super(RuntimeEnvironment.application.getContentResolver(), maxBytes);
+    }
+
+    @Override
+    byte[] load(Integer identifier, boolean highRes, boolean raw, int size) {
+      loaded.add(identifier);
+      if (invalidateWhileLoading) {
+        // As the observer does when the contacts change during the load.
+        invalidate();
+      }
+      return identifier % 2 == 1 ? new byte[40] : null;
+    }
+  }
+}
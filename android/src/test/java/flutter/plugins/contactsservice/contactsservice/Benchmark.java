@@ -0,0 +1,107 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Measures a piece of code on the JVM running the unit tests, so that it runs on any machine
+ * without a device: a few warm-up iterations let the JIT compile it, then every measured
+ * iteration is timed and the memory it allocates is counted. Reports the throughput, the
+ * allocations per item and the latency percentiles of an iteration.
+ */
+final class Benchmark {
+
+  /** Address book sizes the benchmarks are run with */
+  static final int[] SIZES = {1000, 10000, 50000};
+
+  private static final int WARMUP_ITERATIONS = 3;
+  /** Items processed by the measured iterations of a benchmark, to keep each size under a few seconds */
+  private static final int ITEMS_PER_BENCHMARK = 200000;
+  private static final int MIN_ITERATIONS = 5;
+
+  /**
+   * One iteration of a benchmark
+   */
+  abstract static class Iteration {
+    /**
+     * Prepares the input of the next iteration, which is not measured
+     */
+    void setUp() {}
+
+    abstract void run();
+  }
+
+  static final class Result {
+    final double itemsPerSecond;
+    /** Bytes allocated per item, or -1 if the JVM cannot count them */
+    final long bytesPerItem;
+    final double p50Millis;
+    final double p99Millis;
+
+    Result(double itemsPerSecond, long bytesPerItem, double p50Millis, double p99Millis) {
+      this.itemsPerSecond = itemsPerSecond;
+      this.bytesPerItem = bytesPerItem;
+      this.p50Millis = p50Millis;
+      this.p99Millis = p99Millis;
+    }
+  }
+
+  private Benchmark() {}
+
+  /**
+   * Runs the benchmark and prints its result
+   * @param items the number of items, such as contacts, an iteration processes
+   */
+  static Result run(String name, int items, Iteration iteration) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      iteration.setUp();
+      iteration.run();
+    }
+
+    int iterations = Math.max(MIN_ITERATIONS, ITEMS_PER_BENCHMARK / items);
+    long[] nanos = new long[iterations];
+    long allocated = 0;
+    for (int i = 0; i < iterations; i++) {
+      iteration.setUp();
+      long bytes = allocatedBytes();
+      long start = System.nanoTime();
+      iteration.run();
+      nanos[i] = System.nanoTime() - start;
+      allocated += allocatedBytes() - bytes;
+    }
+
+    long total = 0;
+    for (long n : nanos) {
+      total += n;
+    }
+    Arrays.sort(nanos);
+    Result result = new Result(
+        (double) items * iterations * 1e9 / total,
+        allocatedBytes() < 0 ? -1 : allocated / ((long) items * iterations),
+        percentile(nanos, 50) / 1e6,
+        percentile(nanos, 99) / 1e6);
+    System.out.printf("%s, %d items: %.0f items/s, %d bytes allocated per item, p50 %.2f ms, p99 %.2f ms%n",
+        name, items, result.itemsPerSecond, result.bytesPerItem, result.p50Millis, result.p99Millis);
+    return result;
+  }
+
+  /**
+   * Returns the value below which the given percentage of the sorted values fall
+   */
+  static long percentile(long[] sorted, int percent) {
+    int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+  }
+
+  /**
+   * Returns the bytes allocated so far by the current thread, or -1 if the JVM cannot count them
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+}
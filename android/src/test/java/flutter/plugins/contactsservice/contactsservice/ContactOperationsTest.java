@@ -0,0 +1,440 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ContactOperationsTest {
+
+  private RecordingProvider provider;
+
+  @Before
+  public void setUp() {
+    provider = Robolectric.buildContentProvider(RecordingProvider.class).create(ContactsContract.AUTHORITY).get();
+  }
+
+  @Test
+  public void add_packsContactsIntoBatchesUnderTheLimit() {
+    ArrayList<Contact> contacts = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      contacts.add(contact("Given" + i));
+    }
+
+    boolean[] results = ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.ADD, contacts);
+
+    // 7 operations per contact: 57 contacts fit in a batch.
+    assertThat(provider.batchSizes).containsExactly(57 * 7, 43 * 7).inOrder();
+    for (boolean result : results) {
+      assertThat(result).isTrue();
+    }
+    // Every contact's rows refer to its own raw contact, not to the first one of the batch.
+    assertThat(new HashSet<>(provider.nameRawContactIds)).hasSize(100);
+  }
+
+  @Test
+  public void add_retriesContactsOfAFailedBatchOneByOne() {
+    List<Contact> contacts = Arrays.asList(contact("Given1"), contact(RecordingProvider.INVALID), contact("Given2"));
+
+    boolean[] results = ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.ADD, contacts);
+
+    assertThat(results).isEqualTo(new boolean[]{true, false, true});
+    assertThat(provider.batchSizes).containsExactly(21, 7, 7, 7).inOrder();
+  }
+
+  @Test
+  public void update_writesOnlyTheRowsThatChanged() {
+    Contact contact = contact("Given1");
+    contact.identifier = 1;
+    contact.avatar = new byte[]{1, 2, 3};
+    provider.addRows(contact, 10);
+    // As if written by the previous update, the provider storing it in another form.
+    ContactPhotos.remember(contact.identifier, contact.avatar, provider.lastUpdated);
+    contact.phones.set(1, new Item("work", "555-0199"));
+
+    assertThat(ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.UPDATE, contact)).isTrue();
+
+    assertThat(provider.updates).isEqualTo(1);
+    assertThat(provider.inserts).isEqualTo(0);
+    assertThat(provider.deletes).isEqualTo(0);
+  }
+
+  @Test
+  public void update_writesAPhotoNotReadFromTheContact() {
+    Contact contact = contact("Given1");
+    contact.identifier = 2;
+    contact.avatar = new byte[]{1, 2, 3};
+    provider.addRows(contact, 10);
+    contact.avatar = new byte[]{4, 5, 6};
+
+    ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.UPDATE, contact);
+
+    assertThat(provider.updates).isEqualTo(1);
+    assertThat(provider.updatedValues.get(0).getAsByteArray(CommonDataKinds.Photo.PHOTO)).isEqualTo(new byte[]{4, 5, 6});
+
+    // Written, so remembered: the same photo is left alone next time.
+    provider.reset();
+    provider.addRows(contact, 10);
+    ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.UPDATE, contact);
+    assertThat(provider.updates).isEqualTo(0);
+  }
+
+  @Test
+  public void add_streamsALargePhotoToItsRawContact() throws IOException {
+    Contact contact = contact("Given2");
+    contact.avatar = photo(20 * 1024);
+
+    boolean[] results = ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.ADD, Arrays.asList(contact("Given1"), contact));
+
+    assertThat(results).isEqualTo(new boolean[]{true, true});
+    assertThat(provider.insertedPhotos).hasSize(2);
+    assertThat(provider.insertedPhotos.get(1).length).isAtMost(ContactPhotos.MAX_INLINE_BYTES);
+    // The raw contact of the second contact, not the first one of the batch.
+    assertThat(provider.displayPhotoUris).hasSize(1);
+    assertThat(provider.displayPhotoUris.get(0).getPathSegments())
+        .containsExactly("raw_contacts", String.valueOf(provider.rawContactIds.get(1)), "display_photo").inOrder();
+    assertThat(Arrays.equals(Files.readAllBytes(provider.displayPhoto.toPath()), contact.avatar)).isTrue();
+  }
+
+  @Test
+  public void update_leavesAnUnchangedLargePhotoAlone() {
+    Contact contact = contact("Given1");
+    contact.identifier = 4;
+    contact.avatar = photo(20 * 1024);
+    provider.addRows(contact, 10);
+    ContactPhotos.remember(contact.identifier, contact.avatar, provider.lastUpdated);
+    contact.phones.set(1, new Item("work", "555-0199"));
+
+    assertThat(ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.UPDATE, contact)).isTrue();
+
+    assertThat(provider.updates).isEqualTo(1);
+    assertThat(provider.updatedValues.get(0).containsKey(CommonDataKinds.Photo.PHOTO)).isFalse();
+    assertThat(provider.displayPhotoUris).isEmpty();
+  }
+
+  @Test
+  public void update_streamsAChangedLargePhoto() throws IOException {
+    Contact contact = contact("Given1");
+    contact.identifier = 5;
+    contact.avatar = photo(20 * 1024);
+    provider.addRows(contact, 10);
+    contact.avatar = photo(30 * 1024);
+
+    assertThat(ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.UPDATE, contact)).isTrue();
+
+    assertThat(provider.updates).isEqualTo(1);
+    assertThat(provider.updatedValues.get(0).getAsByteArray(CommonDataKinds.Photo.PHOTO).length)
+        .isAtMost(ContactPhotos.MAX_INLINE_BYTES);
+    assertThat(provider.displayPhotoUris).hasSize(1);
+    assertThat(provider.displayPhotoUris.get(0).getPathSegments())
+        .containsExactly("raw_contacts", "10", "display_photo").inOrder();
+    assertThat(Arrays.equals(Files.readAllBytes(provider.displayPhoto.toPath()), contact.avatar)).isTrue();
+    assertThat(ContactPhotos.isRemembered(contact.identifier, contact.avatar, provider.lastUpdated)).isTrue();
+  }
+
+  @Test
+  public void update_writesBackThePhotoThePreviousUpdateReplaced() {
+    Contact contact = contact("Given1");
+    contact.identifier = 6;
+    contact.avatar = new byte[]{1, 2, 3};
+    provider.addRows(contact, 10);
+    contact.avatar = new byte[]{4, 5, 6};
+    ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.UPDATE, contact);
+
+    provider.reset();
+    provider.addRows(contact, 10);
+    contact.avatar = new byte[]{1, 2, 3};
+    ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.UPDATE, contact);
+
+    assertThat(provider.updates).isEqualTo(1);
+    assertThat(provider.updatedValues.get(0).getAsByteArray(CommonDataKinds.Photo.PHOTO)).isEqualTo(new byte[]{1, 2, 3});
+  }
+
+  @Test
+  public void update_writesAgainAPhotoAnotherAppChanged() {
+    Contact contact = contact("Given1");
+    contact.identifier = 7;
+    contact.avatar = new byte[]{1, 2, 3};
+    provider.addRows(contact, 10);
+    contact.avatar = new byte[]{4, 5, 6};
+    ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.UPDATE, contact);
+
+    // Another app then gives the contact another photo.
+    provider.reset();
+    contact.avatar = new byte[]{7, 8, 9};
+    provider.addRows(contact, 10);
+    provider.lastUpdated++;
+    contact.avatar = new byte[]{4, 5, 6};
+    ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.UPDATE, contact);
+
+    assertThat(provider.updates).isEqualTo(1);
+    assertThat(provider.updatedValues.get(0).getAsByteArray(CommonDataKinds.Photo.PHOTO)).isEqualTo(new byte[]{4, 5, 6});
+  }
+
+  @Test
+  public void update_writesTheLabelsOfEmailsAndAddresses() {
+    Contact contact = contact("Given1");
+    contact.identifier = 3;
+    contact.emails.add(new Item("personal", "given1@example.com"));
+    contact.postalAddresses.add(new PostalAddress("cottage", "1 Main Street", "Springfield", null, null, null));
+    provider.addRows(contact, 10);
+    contact.emails.get(0).label = "school";
+    contact.postalAddresses.get(0).label = "home";
+
+    ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.UPDATE, contact);
+
+    assertThat(provider.updates).isEqualTo(2);
+    ContentValues email = provider.updatedValues.get(0);
+    assertThat(email.getAsInteger(CommonDataKinds.Email.TYPE)).isEqualTo(CommonDataKinds.Email.TYPE_CUSTOM);
+    assertThat(email.getAsString(CommonDataKinds.Email.LABEL)).isEqualTo("school");
+    ContentValues address = provider.updatedValues.get(1);
+    assertThat(address.getAsInteger(CommonDataKinds.StructuredPostal.TYPE)).isEqualTo(CommonDataKinds.StructuredPostal.TYPE_HOME);
+    assertThat(address.getAsString(CommonDataKinds.StructuredPostal.LABEL)).isNull();
+  }
+
+  @Test
+  public void update_insertsAndDeletesRowsThatDoNotPairUp() {
+    Contact contact = contact("Given1");
+    contact.identifier = 1;
+    provider.addRows(contact, 10);
+    contact.phones.remove(1);
+    contact.emails.add(new Item("work", "given1@example.com"));
+
+    ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.UPDATE, contact);
+
+    assertThat(provider.updates).isEqualTo(0);
+    assertThat(provider.inserts).isEqualTo(1);
+    assertThat(provider.deletes).isEqualTo(1);
+  }
+
+  @Test
+  public void update_withoutRows_replacesEveryDetail() {
+    Contact contact = contact("Given1");
+    contact.identifier = 1;
+
+    ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(),
+        ContactOperations.UPDATE, contact);
+
+    // Organization, note, photo and both phones are inserted again after deleting every kind.
+    assertThat(provider.deletes).isEqualTo(6);
+    assertThat(provider.updates).isEqualTo(1);
+    assertThat(provider.inserts).isEqualTo(5);
+  }
+
+  @Test
+  public void update_ofManyContacts_writesOnlyTheChangedRowOfEach() {
+    ArrayList<Contact> contacts = new ArrayList<>();
+    for (int i = 101; i <= 110; i++) {
+      Contact contact = contact("Given" + i);
+      contact.identifier = i;
+      contact.emails.add(new Item("work", "given" + i + "@example.com"));
+      contacts.add(contact);
+    }
+    ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(), ContactOperations.UPDATE, contacts);
+    // Without rows, every detail is deleted and inserted again.
+    assertThat(provider.operations()).isAtLeast(12 * contacts.size());
+
+    provider.reset();
+    for (Contact contact : contacts) {
+      provider.addRows(contact, contact.identifier);
+      contact.phones.set(1, new Item("work", "555-0" + contact.identifier));
+    }
+    ContactOperations.apply(RuntimeEnvironment.application.getContentResolver(), ContactOperations.UPDATE, contacts);
+
+    assertThat(provider.operations()).isEqualTo(contacts.size());
+    assertThat(provider.updates).isEqualTo(contacts.size());
+  }
+
+  private static byte[] photo(int length) {
+    byte[] photo = new byte[length];
+    new Random(length).nextBytes(photo);
+    return photo;
+  }
+
+  private static Contact contact(String givenName) {
+    Contact contact = new Contact(null);
+    contact.givenName = givenName;
+    contact.phones.add(new Item("mobile", "555-0100"));
+    contact.phones.add(new Item("work", "555-0101"));
+    return contact;
+  }
+
+  /**
+   * Applies the operations of every batch, remembering their number, and fails to insert the name {@link #INVALID}.
+   * Display photos are written to a temporary file. Every write changes the contacts, as far as
+   * their last updated timestamp goes.
+   */
+  public static class RecordingProvider extends FakeContentProvider {
+
+    static final String INVALID = "Invalid";
+
+    final ArrayList<Integer> batchSizes = new ArrayList<>();
+    final ArrayList<Long> nameRawContactIds = new ArrayList<>();
+    final ArrayList<ContentValues> updatedValues = new ArrayList<>();
+    final ArrayList<Long> rawContactIds = new ArrayList<>();
+    final ArrayList<byte[]> insertedPhotos = new ArrayList<>();
+    final ArrayList<Uri> displayPhotoUris = new ArrayList<>();
+    File displayPhoto;
+    /** The last updated timestamp of every contact */
+    long lastUpdated = 1;
+    int inserts;
+    int updates;
+    int deletes;
+    private final ArrayList<Object[]> rows = new ArrayList<>();
+    private long nextId = 1;
+
+    /**
+     * Stores the rows an update would give the contact, as the rows returned by queries. Like
+     * the provider, which resizes them, it stores photos with other bytes than those written.
+     */
+    void addRows(Contact contact, long rawContactId) {
+      for (ContactOperations.Row row : ContactOperations.rows(contact, ContactPhotos.inline(contact.avatar))) {
+        Object[] values = new Object[ContactOperations.ROW_PROJECTION.length];
+        values[0] = nextId++;
+        values[1] = contact.identifier;
+        values[2] = rawContactId;
+        values[3] = row.mimeType;
+        for (int i = 4; i < values.length; i++) {
+          values[i] = row.values.get(ContactOperations.ROW_PROJECTION[i]);
+          if (values[i] instanceof byte[]) {
+            byte[] photo = (byte[]) values[i];
+            values[i] = Arrays.copyOf(photo, photo.length + 1);
+          }
+        }
+        rows.add(values);
+      }
+    }
+
+    int operations() {
+      int operations = 0;
+      for (int size : batchSizes) {
+        operations += size;
+      }
+      return operations;
+    }
+
+    void reset() {
+      batchSizes.clear();
+      updatedValues.clear();
+      rawContactIds.clear();
+      insertedPhotos.clear();
+      displayPhotoUris.clear();
+      rows.clear();
+      inserts = 0;
+      updates = 0;
+      deletes = 0;
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+        throws OperationApplicationException {
+      batchSizes.add(operations.size());
+      lastUpdated++;
+      return super.applyBatch(operations);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+      String mimeType = values.getAsString(ContactsContract.Data.MIMETYPE);
+      if (CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE.equals(mimeType)) {
+        if (INVALID.equals(values.getAsString(CommonDataKinds.StructuredName.GIVEN_NAME))) {
+          return null;
+        }
+        nameRawContactIds.add(values.getAsLong(ContactsContract.Data.RAW_CONTACT_ID));
+      } else if (CommonDataKinds.Photo.CONTENT_ITEM_TYPE.equals(mimeType)) {
+        insertedPhotos.add(values.getAsByteArray(CommonDataKinds.Photo.PHOTO));
+      }
+      inserts++;
+      long id = nextId++;
+      if (uri.equals(ContactsContract.RawContacts.CONTENT_URI)) {
+        rawContactIds.add(id);
+      }
+      return ContentUris.withAppendedId(uri, id);
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+      displayPhotoUris.add(uri);
+      lastUpdated++;
+      try {
+        displayPhoto = File.createTempFile("display_photo", ".jpg");
+      } catch (IOException e) {
+        throw new FileNotFoundException(e.getMessage());
+      }
+      displayPhoto.deleteOnExit();
+      return ParcelFileDescriptor.open(displayPhoto, ParcelFileDescriptor.parseMode(mode));
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+      HashSet<String> args = new HashSet<>(Arrays.asList(selectionArgs));
+      MatrixCursor cursor = new MatrixCursor(projection);
+      if (uri.equals(ContactsContract.Contacts.CONTENT_URI)) {
+        for (String id : args) {
+          cursor.addRow(new Object[]{Long.valueOf(id), lastUpdated});
+        }
+        return cursor;
+      }
+      for (Object[] row : rows) {
+        if (args.contains(String.valueOf(row[1]))) {
+          cursor.addRow(row);
+        }
+      }
+      return cursor;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+      deletes++;
+      return 1;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+      updates++;
+      updatedValues.add(values);
+      return 1;
+    }
+  }
+}
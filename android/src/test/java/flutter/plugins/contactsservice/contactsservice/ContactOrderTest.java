@@ -0,0 +1,81 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class ContactOrderTest {
+
+  @Test
+  public void sort_byGivenName_ignoresCase() {
+    List<Contact> contacts = contacts(contact(1, "bob", "Smith"), contact(2, "Alice", "Jones"), contact(3, null, "Doe"));
+
+    ContactOrder.sort(contacts, ContactOrder.GIVEN_NAME);
+
+    assertThat(identifiers(contacts)).containsExactly(3, 2, 1).inOrder();
+  }
+
+  @Test
+  public void sort_byFamilyName_thenGivenName() {
+    List<Contact> contacts = contacts(contact(1, "Bob", "Smith"), contact(2, "Alice", "Smith"), contact(3, "Carol", "Jones"));
+
+    ContactOrder.sort(contacts, ContactOrder.FAMILY_NAME);
+
+    assertThat(identifiers(contacts)).containsExactly(3, 2, 1).inOrder();
+  }
+
+  @Test
+  public void sort_byIdentifier() {
+    List<Contact> contacts = contacts(contact(12, "Bob", null), contact(2, "Alice", null), contact(7, "Carol", null));
+
+    ContactOrder.sort(contacts, ContactOrder.IDENTIFIER);
+
+    assertThat(identifiers(contacts)).containsExactly(2, 7, 12).inOrder();
+  }
+
+  @Test
+  public void sort_isStable() {
+    List<Contact> contacts = contacts(contact(1, "Alice", "Smith"), contact(2, "alice", "Jones"));
+
+    ContactOrder.sort(contacts, ContactOrder.GIVEN_NAME);
+
+    assertThat(identifiers(contacts)).containsExactly(1, 2).inOrder();
+  }
+
+  @Test
+  public void getSortOrder_onlyForTheOrdersOfTheProvider() {
+    assertThat(ContactOrder.getSortOrder(ContactOrder.DISPLAY_NAME)).isEqualTo("sort_key, contact_id");
+    assertThat(ContactOrder.getSortOrder(ContactOrder.IDENTIFIER)).isEqualTo("contact_id");
+    assertThat(ContactOrder.getSortOrder(ContactOrder.GIVEN_NAME)).isNull();
+    assertThat(ContactOrder.getSortOrder(null)).isNull();
+  }
+
+  @Test
+  public void get_fallsBackToOrderByGivenName() {
+    assertThat(ContactOrder.get(null, true)).isEqualTo(ContactOrder.GIVEN_NAME);
+    assertThat(ContactOrder.get(null, false)).isNull();
+    assertThat(ContactOrder.get(ContactOrder.FAMILY_NAME, true)).isEqualTo(ContactOrder.FAMILY_NAME);
+  }
+
+  private static List<Contact> contacts(Contact... contacts) {
+    return new ArrayList<>(Arrays.asList(contacts));
+  }
+
+  private static List<Integer> identifiers(List<Contact> contacts) {
+    List<Integer> identifiers = new ArrayList<>();
+    for (Contact contact : contacts) {
+      identifiers.add(contact.identifier);
+    }
+    return identifiers;
+  }
+
+  private static Contact contact(int identifier, String givenName, String familyName) {
+    Contact contact = new Contact(identifier);
+    contact.givenName = givenName;
+    contact.familyName = familyName;
+    return contact;
+  }
+}
@@ -0,0 +1,98 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.ContactsContract;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ContactPhotosTest {
+
+  private FileProvider provider;
+  private ContentResolver contentResolver;
+
+  @Before
+  public void setUp() throws IOException {
+    provider = Robolectric.buildContentProvider(FileProvider.class).create(ContactsContract.AUTHORITY).get();
+    provider.file = File.createTempFile("display_photo", ".jpg");
+    provider.file.deleteOnExit();
+    contentResolver = RuntimeEnvironment.application.getContentResolver();
+  }
+
+  @Test
+  public void inline_keepsSmallPhotos() {
+    byte[] thumbnail = photo(ContactPhotos.MAX_INLINE_BYTES);
+
+    assertThat(ContactPhotos.inline(thumbnail)).isSameInstanceAs(thumbnail);
+    assertThat(ContactPhotos.inline(null)).isNull();
+  }
+
+  @Test
+  public void writeDisplayPhoto_streamsThePhoto() throws IOException {
+    byte[] photo = photo(1024 * 1024 + 1);
+
+    assertThat(ContactPhotos.writeDisplayPhoto(contentResolver, 42, photo)).isTrue();
+
+    assertThat(provider.lastUri.getPathSegments()).containsExactly("raw_contacts", "42", "display_photo").inOrder();
+    assertThat(Arrays.equals(Files.readAllBytes(provider.file.toPath()), photo)).isTrue();
+  }
+
+  @Test
+  public void isDisplayPhoto_comparesTheStoredBytes() throws IOException {
+    byte[] photo = photo(100 * 1024);
+    Files.write(provider.file.toPath(), photo);
+
+    assertThat(ContactPhotos.isDisplayPhoto(contentResolver, 7, photo)).isTrue();
+    byte[] changed = photo.clone();
+    changed[changed.length - 1]++;
+    assertThat(ContactPhotos.isDisplayPhoto(contentResolver, 7, changed)).isFalse();
+    assertThat(ContactPhotos.isDisplayPhoto(contentResolver, 7, Arrays.copyOf(photo, photo.length - 1))).isFalse();
+  }
+
+  @Test
+  public void isDisplayPhoto_isFalseWithoutAPhoto() {
+    provider.file = null;
+
+    assertThat(ContactPhotos.isDisplayPhoto(contentResolver, 7, photo(10))).isFalse();
+  }
+
+  private static byte[] photo(int length) {
+    byte[] photo = new byte[length];
+    new Random(length).nextBytes(photo);
+    return photo;
+  }
+
+  /**
+   * Serves a single file for every photo
+   */
+  public static class FileProvider extends FakeContentProvider {
+
+    File file;
+    Uri lastUri;
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+      lastUri = uri;
+      if (file == null) {
+        throw new FileNotFoundException(uri.toString());
+      }
+      return ParcelFileDescriptor.open(file, ParcelFileDescriptor.parseMode(mode));
+    }
+  }
+}
@@ -2,6 +2,8 @@ package flutter.plugins.contactsservice.contactsservice;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import java.util.Collections;
+import java.util.HashMap;
 import org.junit.Test;
 
 public class ContactTest {
@@ -97,4 +99,21 @@ public class ContactTest {
     assertThat(contact1.compareTo(contact3))
         .isGreaterThan(0);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void toMap_onlyRequestedFields() {
+    Contact contact = new Contact(1);
+    contact.displayName = "displayName";
+    contact.givenName = "givenName";
+    contact.phones.add(new Item("mobile", "555"));
+
+    HashMap<String, Object> map = contact.toMap(Collections.singleton(Contact.FIELD_PHONES));
+
+    assertThat(map).containsEntry("identifier", 1);
+    assertThat(map).containsEntry("displayName", "displayName");
+    assertThat(map).containsKey("phones");
+    assertThat(map).doesNotContainKey("givenName");
+    assertThat(map).doesNotContainKey("emails");
+    assertThat(map).doesNotContainKey("postalAddresses");
+  }
+}
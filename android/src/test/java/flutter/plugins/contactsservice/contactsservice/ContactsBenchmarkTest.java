@@ -0,0 +1,220 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Benchmarks the hot paths of the plugin against synthetic address books of {@link Benchmark#SIZES}
+ * contacts, each with the rows of {@link ContactsDataFixture#addContact}. Skipped unless the tests
+ * are run with -Pbenchmark.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ContactsBenchmarkTest {
+
+  /** Size of the thumbnails served by {@link PhotoProvider}, a typical 96x96 JPEG */
+  private static final int THUMBNAIL_BYTES = 6 * 1024;
+
+  private final GetContactsTask task = new GetContactsTask(null, null, false, false, false);
+
+  @Test
+  public void benchmark_getContactsFrom() {
+    assumeTrue(Boolean.getBoolean("benchmark"));
+
+    for (final int size : Benchmark.SIZES) {
+      Benchmark.run("getContactsFrom", size, new Benchmark.Iteration() {
+        MatrixCursor cursor;
+
+        @Override
+        void setUp() {
+          cursor = new ContactsDataFixture().addContacts(size).cursor();
+        }
+
+        @Override
+        void run() {
+          task.getContactsFrom(cursor);
+        }
+      });
+    }
+  }
+
+  @Test
+  public void benchmark_getContactsFromWithPerRowLookups() {
+    assumeTrue(Boolean.getBoolean("benchmark"));
+
+    for (final int size : Benchmark.SIZES) {
+      Benchmark.run("getContactsFrom, column lookups per row", size, new Benchmark.Iteration() {
+        MatrixCursor cursor;
+
+        @Override
+        void setUp() {
+          cursor = new ContactsDataFixture().addContacts(size).cursor();
+        }
+
+        @Override
+        void run() {
+          aggregateWithPerRowLookups(cursor);
+        }
+      });
+    }
+  }
+
+  @Test
+  public void benchmark_toMapAndFromMap() {
+    assumeTrue(Boolean.getBoolean("benchmark"));
+
+    for (int size : Benchmark.SIZES) {
+      final ArrayList<Contact> contacts = task.getContactsFrom(new ContactsDataFixture().addContacts(size).cursor());
+      Benchmark.run("Contact.toMap", size, new Benchmark.Iteration() {
+        @Override
+        void run() {
+          for (Contact contact : contacts) {
+            contact.toMap();
+          }
+        }
+      });
+
+      final ArrayList<HashMap> maps = new ArrayList<>(size);
+      for (Contact contact : contacts) {
+        maps.add(contact.toMap());
+      }
+      Benchmark.run("Contact.fromMap", size, new Benchmark.Iteration() {
+        @Override
+        void run() {
+          for (HashMap map : maps) {
+            Contact.fromMap(map);
+          }
+        }
+      });
+    }
+  }
+
+  @Test
+  public void benchmark_updateOperations() {
+    assumeTrue(Boolean.getBoolean("benchmark"));
+
+    for (int size : Benchmark.SIZES) {
+      final ArrayList<Contact> contacts = task.getContactsFrom(new ContactsDataFixture().addContacts(size).cursor());
+      final ArrayList<List<ContactOperations.Row>> existing = new ArrayList<>(size);
+      for (Contact contact : contacts) {
+        existing.add(existingRows(contact));
+        // One detail changed, as when the user edits a phone number.
+        contact.phones.set(1, new Item("work", "555-0199"));
+      }
+
+      Benchmark.run("ContactOperations.update", size, new Benchmark.Iteration() {
+        @Override
+        void run() {
+          ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+          for (int i = 0; i < contacts.size(); i++) {
+            ContactOperations.update(ops, contacts.get(i), contacts.get(i).avatar, existing.get(i));
+          }
+        }
+      });
+    }
+  }
+
+  @Test
+  public void benchmark_loadContactPhoto() {
+    assumeTrue(Boolean.getBoolean("benchmark"));
+
+    Robolectric.buildContentProvider(PhotoProvider.class).create(ContactsContract.AUTHORITY);
+    final ContentResolver contentResolver = RuntimeEnvironment.application.getContentResolver();
+    assertThat(ContactsServicePlugin.loadContactPhoto(1, true, true, 0, contentResolver)).hasLength(THUMBNAIL_BYTES);
+
+    for (final int size : Benchmark.SIZES) {
+      Benchmark.run("loadContactPhoto", size, new Benchmark.Iteration() {
+        @Override
+        void run() {
+          for (int id = 1; id <= size; id++) {
+            ContactsServicePlugin.loadContactPhoto(id, true, true, 0, contentResolver);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Aggregates the cursor the way it was done before the column index table, resolving every
+   * column again for each row, to compare {@link GetContactsTask#getContactsFrom} with
+   */
+  private static void aggregateWithPerRowLookups(MatrixCursor cursor) {
+    HashMap<Integer, Contact> map = new LinkedHashMap<>();
+    while (cursor.moveToNext()) {
+      DataColumns columns = new DataColumns(cursor);
+      Integer contactId = cursor.getInt(columns.contactId);
+      Contact contact = map.get(contactId);
+      if (contact == null) {
+        contact = new Contact(contactId);
+        map.put(contactId, contact);
+      }
+      GetContactsTask.readRow(cursor, columns, contact);
+    }
+    cursor.close();
+  }
+
+  /**
+   * Returns the rows the provider would hold for the contact, as read by an update
+   */
+  private static List<ContactOperations.Row> existingRows(Contact contact) {
+    MatrixCursor cursor = new MatrixCursor(ContactOperations.ROW_PROJECTION);
+    long id = contact.identifier * 100L;
+    for (ContactOperations.Row row : ContactOperations.rows(contact, contact.avatar)) {
+      Object[] values = new Object[ContactOperations.ROW_PROJECTION.length];
+      values[0] = id++;
+      values[1] = contact.identifier;
+      values[2] = contact.identifier;
+      values[3] = row.mimeType;
+      for (int i = 4; i < values.length; i++) {
+        values[i] = row.values.get(ContactOperations.ROW_PROJECTION[i]);
+      }
+      cursor.addRow(values);
+    }
+    ArrayList<ContactOperations.Row> rows = new ArrayList<>();
+    while (cursor.moveToNext()) {
+      rows.add(new ContactOperations.Row(cursor));
+    }
+    cursor.close();
+    return rows;
+  }
+
+  /**
+   * Serves the same thumbnail for every contact. Having no display photo files, the high
+   * resolution photos fall back to the thumbnails, as they do for contacts synced without one.
+   */
+  public static class PhotoProvider extends FakeContentProvider {
+
+    private final byte[] thumbnail = new byte[THUMBNAIL_BYTES];
+
+    @Override
+    public boolean onCreate() {
+      new Random(0).nextBytes(thumbnail);
+      return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+      MatrixCursor cursor = new MatrixCursor(projection);
+      cursor.addRow(new Object[]{thumbnail});
+      return cursor;
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import org.junit.Test;
+
+public class ContactsCacheTest {
+
+  @Test
+  public void readContact_readsWrittenContact() throws IOException {
+    Contact contact = new Contact(42);
+    contact.displayName = "\u00c9mile Zola";
+    contact.givenName = "\u00c9mile";
+    contact.familyName = "Zola";
+    contact.note = null;
+    contact.birthday = "1840-04-02";
+    contact.phones.add(new Item("mobile", "+33 1 23 45 67 89"));
+    contact.emails.add(new Item("work", "emile@example.com"));
+    contact.postalAddresses.add(new PostalAddress("home", "21 rue de Bruxelles", "Paris", "75009", null, "France"));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ContactsCache.writeContact(new DataOutputStream(bytes), contact);
+    Contact read = ContactsCache.readContact(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    HashMap<String, Object> expected = contact.toMap();
+    HashMap<String, Object> actual = read.toMap();
+    // Avatars are not cached.
+    expected.remove("avatar");
+    actual.remove("avatar");
+    assertThat(actual).isEqualTo(expected);
+  }
+}
@@ -0,0 +1,54 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class ContactsCodecTest {
+
+  @Test
+  public void encode_onlyRequestedFields() {
+    Contact contact = new Contact(1);
+    contact.displayName = "Ann";
+    contact.givenName = "Ann";
+    contact.phones.add(new Item("mobile", "555"));
+
+    byte[] bytes = ContactsCodec.encode(Collections.singletonList(contact),
+        Collections.singleton(Contact.FIELD_PHONES));
+
+    assertThat(bytes).isEqualTo(new byte[]{
+        ContactsCodec.VERSION, ContactsCodec.FIELD_PHONES,
+        // String table
+        3, 3, 'A', 'n', 'n', 6, 'm', 'o', 'b', 'i', 'l', 'e', 3, '5', '5', '5',
+        // One contact: identifier, display name, empty avatar, then one phone
+        1, 1, 1, 1, 1, 2, 3,
+    });
+  }
+
+  @Test
+  public void encode_writesEachStringOnce() {
+    Contact first = new Contact(1);
+    first.phones.add(new Item("mobile", "555-0100"));
+    Contact second = new Contact(2);
+    second.phones.add(new Item("mobile", "555-0101"));
+
+    byte[] bytes = ContactsCodec.encode(Arrays.asList(first, second), null);
+
+    // "mobile" and both numbers
+    assertThat((int) bytes[2]).isEqualTo(3);
+  }
+
+  @Test
+  public void encode_largeIdentifiersAsVarints() {
+    Contact contact = new Contact(300);
+
+    byte[] bytes = ContactsCodec.encode(Collections.singletonList(contact),
+        Collections.<String>emptySet());
+
+    assertThat(Arrays.copyOfRange(bytes, 2, bytes.length)).isEqualTo(new byte[]{
+        0, 1, (byte) 0xAC, 0x02, 0, 1,
+    });
+  }
+}
@@ -0,0 +1,105 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import android.database.MatrixCursor;
+import android.provider.ContactsContract;
+
+import static android.provider.ContactsContract.CommonDataKinds;
+
+/**
+ * Builds synthetic {@link ContactsContract.Data} cursors shaped like the ones returned by the
+ * Contacts provider for {@link GetContactsTask#PROJECTION}.
+ */
+class ContactsDataFixture {
+
+  private final String[] columns;
+  private final MatrixCursor cursor;
+
+  ContactsDataFixture() {
+    this(GetContactsTask.PROJECTION);
+  }
+
+  ContactsDataFixture(String[] columns) {
+    this.columns = columns;
+    this.cursor = new MatrixCursor(columns);
+  }
+
+  ContactsDataFixture(MatrixCursor cursor) {
+    this.columns = cursor.getColumnNames();
+    this.cursor = cursor;
+  }
+
+  MatrixCursor cursor() {
+    return cursor;
+  }
+
+  /**
+   * Adds the rows of a typical contact: a name, a note, an organization, two phones, an email
+   * and a postal address.
+   */
+  ContactsDataFixture addContact(int contactId) {
+    final String displayName = "Given" + contactId + " Family" + contactId;
+    addName(contactId, displayName, "Given" + contactId, "Family" + contactId);
+    addRow(contactId, displayName, CommonDataKinds.Note.CONTENT_ITEM_TYPE,
+        CommonDataKinds.Note.NOTE, "note " + contactId);
+    addRow(contactId, displayName, CommonDataKinds.Organization.CONTENT_ITEM_TYPE,
+        CommonDataKinds.Organization.COMPANY, "Company" + contactId,
+        CommonDataKinds.Organization.TITLE, "Engineer");
+    addPhone(contactId, displayName, "+1 555 01" + contactId, CommonDataKinds.Phone.TYPE_MOBILE);
+    addPhone(contactId, displayName, "+1 555 02" + contactId, CommonDataKinds.Phone.TYPE_WORK);
+    addRow(contactId, displayName, CommonDataKinds.Email.CONTENT_ITEM_TYPE,
+        CommonDataKinds.Email.ADDRESS, "given" + contactId + "@example.com",
+        CommonDataKinds.Email.TYPE, CommonDataKinds.Email.TYPE_CUSTOM,
+        CommonDataKinds.Email.LABEL, "Personal");
+    addRow(contactId, displayName, CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE,
+        CommonDataKinds.StructuredPostal.TYPE, CommonDataKinds.StructuredPostal.TYPE_HOME,
+        CommonDataKinds.StructuredPostal.STREET, contactId + " Main Street",
+        CommonDataKinds.StructuredPostal.CITY, "Springfield",
+        CommonDataKinds.StructuredPostal.POSTCODE, "12345",
+        CommonDataKinds.StructuredPostal.REGION, "OR",
+        CommonDataKinds.StructuredPostal.COUNTRY, "USA");
+    return this;
+  }
+
+  ContactsDataFixture addContacts(int count) {
+    for (int contactId = 1; contactId <= count; contactId++) {
+      addContact(contactId);
+    }
+    return this;
+  }
+
+  ContactsDataFixture addName(int contactId, String displayName, String givenName, String familyName) {
+    return addRow(contactId, displayName, CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+        CommonDataKinds.StructuredName.GIVEN_NAME, givenName,
+        CommonDataKinds.StructuredName.FAMILY_NAME, familyName);
+  }
+
+  ContactsDataFixture addPhone(int contactId, String displayName, String number, int type) {
+    return addRow(contactId, displayName, CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
+        CommonDataKinds.Phone.NUMBER, number,
+        CommonDataKinds.Phone.TYPE, type);
+  }
+
+  /**
+   * Adds a row with the given mime type and (column, value) pairs. Every column sharing the
+   * name of a given one receives its value, as the data columns are aliased by the provider.
+   */
+  ContactsDataFixture addRow(int contactId, String displayName, String mimeType, Object... values) {
+    final Object[] row = new Object[columns.length];
+    set(row, ContactsContract.Data.CONTACT_ID, contactId);
+    set(row, ContactsContract.Contacts.DISPLAY_NAME, displayName);
+    set(row, ContactsContract.Data.MIMETYPE, mimeType);
+    for (int i = 0; i < values.length; i += 2) {
+      set(row, (String) values[i], values[i + 1]);
+    }
+    cursor.addRow(row);
+    return this;
+  }
+
+  private void set(Object[] row, String column, Object value) {
+    for (int i = 0; i < columns.length; i++) {
+      if (columns[i].equals(column)) {
+        row[i] = value;
+      }
+    }
+  }
+}
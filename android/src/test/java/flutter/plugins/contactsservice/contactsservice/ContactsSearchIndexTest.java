@@ -0,0 +1,70 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class ContactsSearchIndexTest {
+
+  @Test
+  public void search_matchesTheBeginningOfEveryWord() {
+    ContactsSearchIndex index = new ContactsSearchIndex(Arrays.asList(
+        contact(1, "John", "Smith", null), contact(2, "Joan", "Doe", null), contact(3, "Sam", "Jones", null)));
+
+    assertThat(index.search("jo sm")).containsExactly(1);
+    assertThat(index.search("JO")).containsExactly(1, 2, 3);
+    assertThat(index.search("ohn")).isEmpty();
+  }
+
+  @Test
+  public void search_matchesAnyPartOfThePhoneNumbers() {
+    ContactsSearchIndex index = new ContactsSearchIndex(Arrays.asList(
+        contact(1, "John", "Smith", "+1 555-123-4567"), contact(2, "Joan", "Doe", "555 0100")));
+
+    assertThat(index.search("555")).containsExactly(1, 2);
+    assertThat(index.search("5551234")).containsExactly(1);
+    assertThat(index.search("4567")).containsExactly(1);
+  }
+
+  @Test
+  public void search_ignoresAccents() {
+    ContactsSearchIndex index = new ContactsSearchIndex(Arrays.asList(contact(1, "Ren\u00e9e", "M\u00fcller", null)));
+
+    assertThat(index.search("renee muller")).containsExactly(1);
+    assertThat(index.search("M\u00dcL")).containsExactly(1);
+  }
+
+  @Test
+  public void search_emptyQuery_matchesEveryContact() {
+    ContactsSearchIndex index = new ContactsSearchIndex(Arrays.asList(
+        contact(1, "John", "Smith", null), contact(2, "Joan", "Doe", null)));
+
+    assertThat(index.search(" ")).containsExactly(1, 2);
+  }
+
+  @Test
+  public void put_replacesThePreviousWordsOfTheContact() {
+    ContactsSearchIndex index = new ContactsSearchIndex(Arrays.asList(contact(1, "John", "Smith", null)));
+
+    index.put(contact(1, "John", "Doe", null));
+
+    assertThat(index.search("smith")).isEmpty();
+    assertThat(index.search("doe")).containsExactly(1);
+
+    index.remove(1);
+
+    assertThat(index.search("john")).isEmpty();
+  }
+
+  private static Contact contact(int identifier, String givenName, String familyName, String phone) {
+    Contact contact = new Contact(identifier);
+    contact.givenName = givenName;
+    contact.familyName = familyName;
+    contact.displayName = givenName + " " + familyName;
+    if (phone != null) {
+      contact.phones.add(new Item("mobile", phone));
+    }
+    return contact;
+  }
+}
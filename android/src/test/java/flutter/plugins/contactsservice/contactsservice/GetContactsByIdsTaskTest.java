@@ -0,0 +1,99 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class GetContactsByIdsTaskTest {
+
+  private DataProvider provider;
+
+  @Before
+  public void setUp() {
+    provider = Robolectric.buildContentProvider(DataProvider.class).create(ContactsContract.AUTHORITY).get();
+  }
+
+  @Test
+  public void readContacts_bindsTheIdentifiersAsArguments() {
+    ArrayList<Contact> contacts = task(null, "3", "1").readContacts(null);
+
+    assertThat(identifiers(contacts)).containsExactly(1, 3).inOrder();
+    assertThat(provider.selections).hasSize(1);
+    assertThat(provider.selections.get(0)).startsWith(ContactsContract.Data.CONTACT_ID + " IN (?,?) AND (");
+  }
+
+  @Test
+  public void readContacts_queriesOneChunkOfIdentifiersAtATime() {
+    ArrayList<String> contactIds = new ArrayList<>();
+    for (int id = 1200; id > 0; id--) {
+      contactIds.add(String.valueOf(id));
+    }
+
+    ArrayList<Contact> contacts = task(ContactOrder.IDENTIFIER, contactIds.toArray(new String[0])).readContacts(null);
+
+    assertThat(contacts).hasSize(1200);
+    assertThat(contacts.get(0).identifier).isEqualTo(1);
+    assertThat(contacts.get(1199).identifier).isEqualTo(1200);
+    assertThat(provider.selections).hasSize(3);
+  }
+
+  @Test
+  public void readContacts_returnsNoContactsForNoIdentifiers() {
+    assertThat(task(null).readContacts(null)).isEmpty();
+    assertThat(provider.selections).isEmpty();
+  }
+
+  private static GetContactsByIdsTask task(String order, String... contactIds) {
+    return new GetContactsByIdsTask(RuntimeEnvironment.application.getContentResolver(), null,
+        false, false, order, null, Arrays.asList(contactIds));
+  }
+
+  private static ArrayList<Integer> identifiers(ArrayList<Contact> contacts) {
+    ArrayList<Integer> identifiers = new ArrayList<>();
+    for (Contact contact : contacts) {
+      identifiers.add(contact.identifier);
+    }
+    return identifiers;
+  }
+
+  /**
+   * Serves the rows of {@link ContactsDataFixture} of the contacts whose identifiers are
+   * arguments of the selection, and remembers the selections queried
+   */
+  public static class DataProvider extends FakeContentProvider {
+
+    final ArrayList<String> selections = new ArrayList<>();
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+      selections.add(selection);
+      ArrayList<Integer> contactIds = new ArrayList<>();
+      for (String arg : selectionArgs) {
+        if (arg.matches("\\d+")) {
+          contactIds.add(Integer.valueOf(arg));
+        }
+      }
+      // Like the provider, which returns the rows in the sort order rather than the order of the arguments.
+      Collections.sort(contactIds);
+      ContactsDataFixture fixture = new ContactsDataFixture(projection);
+      for (int contactId : contactIds) {
+        fixture.addContact(contactId);
+      }
+      return fixture.cursor();
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class GetContactsParallelTaskTest {
+
+  @Test
+  public void getPartitionBounds_splitsTheContactsEvenly() {
+    int[] ids = new int[8000];
+    for (int i = 0; i < ids.length; i++) {
+      // Sparse identifiers, as left by deleted contacts.
+      ids[i] = i * 3 + 1;
+    }
+
+    int[] bounds = GetContactsParallelTask.getPartitionBounds(ids, 4, 1000);
+
+    assertThat(bounds.length).isEqualTo(3);
+    assertThat(bounds[0]).isEqualTo(ids[2000]);
+    assertThat(bounds[1]).isEqualTo(ids[4000]);
+    assertThat(bounds[2]).isEqualTo(ids[6000]);
+  }
+
+  @Test
+  public void getPartitionBounds_keepsSmallAddressBooksInASingleRange() {
+    assertThat(GetContactsParallelTask.getPartitionBounds(new int[1999], 8, 1000).length).isEqualTo(0);
+    assertThat(GetContactsParallelTask.getPartitionBounds(new int[100000], 1, 1000).length).isEqualTo(0);
+    // No more ranges than there are threads.
+    assertThat(GetContactsParallelTask.getPartitionBounds(new int[100000], 8, 1000).length).isEqualTo(7);
+  }
+
+  @Test
+  public void readContacts_mergesTheRangesInOrder() {
+    RangeProvider provider = Robolectric.buildContentProvider(RangeProvider.class).create(ContactsContract.AUTHORITY).get();
+    // Without an order to sort them in, the contacts come back as merged. Three ranges, whatever
+    // the number of cores.
+    GetContactsParallelTask task = new GetContactsParallelTask(RuntimeEnvironment.application.getContentResolver(),
+        null, false, false, null, null, null, 3);
+
+    ArrayList<Contact> contacts = task.readContacts(null);
+
+    assertThat(provider.ranges.get()).isEqualTo(3);
+    assertThat(contacts).hasSize(RangeProvider.CONTACTS);
+    for (int i = 0; i < contacts.size(); i++) {
+      assertThat(contacts.get(i).identifier).isEqualTo(i + 1);
+    }
+  }
+
+  /**
+   * Serves the contacts 1 to {@link #CONTACTS}, and the rows of {@link ContactsDataFixture} of those
+   * in the range of contact identifiers of the selection
+   */
+  public static class RangeProvider extends FakeContentProvider {
+
+    static final int CONTACTS = 3 * GetContactsParallelTask.MIN_PARTITION_CONTACTS;
+
+    /** Ranges of contacts queried */
+    final AtomicInteger ranges = new AtomicInteger();
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+      if (uri.equals(ContactsContract.Contacts.CONTENT_URI)) {
+        MatrixCursor cursor = new MatrixCursor(projection);
+        for (int id = 1; id <= CONTACTS; id++) {
+          cursor.addRow(new Object[]{id});
+        }
+        return cursor;
+      }
+
+      int from = 1;
+      int to = CONTACTS + 1;
+      String contactId = ContactsContract.Data.CONTACT_ID;
+      if (selection.startsWith(contactId + " < ?")) {
+        to = Integer.parseInt(selectionArgs[0]);
+      } else if (selection.startsWith(contactId + " >= ? AND " + contactId + " < ?")) {
+        from = Integer.parseInt(selectionArgs[0]);
+        to = Integer.parseInt(selectionArgs[1]);
+      } else if (selection.startsWith(contactId + " >= ?")) {
+        from = Integer.parseInt(selectionArgs[0]);
+      }
+      ranges.incrementAndGet();
+      ContactsDataFixture fixture = new ContactsDataFixture(projection);
+      for (int id = from; id < to; id++) {
+        fixture.addContact(id);
+      }
+      return fixture.cursor();
+    }
+  }
+}
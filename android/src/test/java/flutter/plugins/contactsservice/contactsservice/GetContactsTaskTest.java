@@ -0,0 +1,207 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class GetContactsTaskTest {
+
+  private final GetContactsTask task = new GetContactsTask(null, null, false, false, false);
+
+  @Test
+  public void getContactsFrom_aggregatesRowsPerContact() {
+    ArrayList<Contact> contacts = task.getContactsFrom(new ContactsDataFixture().addContacts(2).cursor());
+
+    assertThat(contacts).hasSize(2);
+    Contact contact = contacts.get(1);
+    assertThat(contact.identifier).isEqualTo(2);
+    assertThat(contact.displayName).isEqualTo("Given2 Family2");
+    assertThat(contact.givenName).isEqualTo("Given2");
+    assertThat(contact.familyName).isEqualTo("Family2");
+    assertThat(contact.note).isEqualTo("note 2");
+    assertThat(contact.company).isEqualTo("Company2");
+    assertThat(contact.jobTitle).isEqualTo("Engineer");
+    assertThat(contact.phones).hasSize(2);
+    assertThat(contact.phones.get(0).label).isEqualTo("mobile");
+    assertThat(contact.phones.get(1).label).isEqualTo("work");
+    assertThat(contact.emails).hasSize(1);
+    assertThat(contact.emails.get(0).label).isEqualTo("personal");
+    assertThat(contact.postalAddresses).hasSize(1);
+    assertThat(contact.postalAddresses.get(0).label).isEqualTo("home");
+    assertThat(contact.postalAddresses.get(0).city).isEqualTo("Springfield");
+  }
+
+  @Test
+  public void readContacts_handsEachContactOverOnceItsRowsAreRead() {
+    final MatrixCursor cursor = new ContactsDataFixture().addContacts(3).cursor();
+    final ArrayList<Integer> positions = new ArrayList<>();
+    final ArrayList<Integer> identifiers = new ArrayList<>();
+
+    task.readContacts(cursor, new GetContactsTask.ContactSink() {
+      @Override
+      public void put(Contact contact) {
+        positions.add(cursor.getPosition());
+        identifiers.add(contact.identifier);
+      }
+    });
+
+    // 7 rows per contact: each one is handed over on reading the first row of the next.
+    assertThat(identifiers).containsExactly(1, 2, 3).inOrder();
+    assertThat(positions).containsExactly(7, 14, 21).inOrder();
+    assertThat(cursor.isClosed()).isTrue();
+  }
+
+  @Test
+  public void sortOrder_keepsTheRowsOfEachContactTogether() {
+    assertThat(task.sortOrder).isEqualTo(ContactsContract.Data.CONTACT_ID);
+    assertThat(new GetContactsTask(null, null, false, false, ContactOrder.DISPLAY_NAME, null, null).sortOrder)
+        .isEqualTo(ContactsContract.Contacts.SORT_KEY_PRIMARY + ", " + ContactsContract.Data.CONTACT_ID);
+  }
+
+  @Test
+  public void fields_narrowProjectionAndMimeTypes() {
+    GetContactsTask phonesTask = new GetContactsTask(null, null, false, false, false,
+        Collections.singleton(Contact.FIELD_PHONES));
+
+    assertThat(Arrays.asList(phonesTask.projection)).containsExactly(
+        ContactsContract.Data.CONTACT_ID,
+        ContactsContract.Contacts.DISPLAY_NAME,
+        ContactsContract.Data.MIMETYPE,
+        CommonDataKinds.Phone.NUMBER,
+        CommonDataKinds.Phone.TYPE);
+    assertThat(Arrays.asList(phonesTask.mimeTypeSelectionArgs))
+        .containsExactly(CommonDataKinds.Phone.CONTENT_ITEM_TYPE);
+  }
+
+  @Test
+  public void thumbnails_areReadWithTheOtherDetails() {
+    GetContactsTask thumbnailsTask = new GetContactsTask(null, null, true, false, false);
+
+    assertThat(Arrays.asList(thumbnailsTask.projection)).contains(CommonDataKinds.Photo.PHOTO);
+    assertThat(Arrays.asList(thumbnailsTask.mimeTypeSelectionArgs)).contains(CommonDataKinds.Photo.CONTENT_ITEM_TYPE);
+    // High resolution photos are still read one by one, from their files.
+    assertThat(Arrays.asList(new GetContactsTask(null, null, true, true, false).projection))
+        .doesNotContain(CommonDataKinds.Photo.PHOTO);
+  }
+
+  @Test
+  public void getContactsFrom_keepsTheThumbnailOfThePhotoOfTheContact() {
+    GetContactsTask thumbnailsTask = new GetContactsTask(null, null, true, false, false);
+    byte[] thumbnail = {1, 2, 3};
+    ContactsDataFixture fixture = new ContactsDataFixture(thumbnailsTask.projection).addContacts(2);
+    fixture.addRow(2, "Given2 Family2", CommonDataKinds.Photo.CONTENT_ITEM_TYPE,
+        ContactsContract.Data._ID, 20L, ContactsContract.Contacts.PHOTO_ID, 21L, CommonDataKinds.Photo.PHOTO, new byte[]{9});
+    fixture.addRow(2, "Given2 Family2", CommonDataKinds.Photo.CONTENT_ITEM_TYPE,
+        ContactsContract.Data._ID, 21L, ContactsContract.Contacts.PHOTO_ID, 21L, CommonDataKinds.Photo.PHOTO, thumbnail);
+
+    ArrayList<Contact> contacts = thumbnailsTask.getContactsFrom(fixture.cursor());
+
+    assertThat(contacts.get(0).avatar).hasLength(0);
+    assertThat(contacts.get(1).avatar).isEqualTo(thumbnail);
+  }
+
+  @Test
+  public void getContactsFrom_looksUpColumnsOncePerCursor() {
+    CountingCursor small = new CountingCursor();
+    new ContactsDataFixture(small).addContacts(1);
+    task.getContactsFrom(small);
+
+    CountingCursor large = new CountingCursor();
+    new ContactsDataFixture(large).addContacts(100);
+    task.getContactsFrom(large);
+
+    assertThat(large.columnLookups).isEqualTo(small.columnLookups);
+  }
+
+  @Test
+  public void getEmailLabel_onlyLooksUpTheLabelOfACustomEmail() {
+    CountingCursor cursor = new CountingCursor();
+    new ContactsDataFixture(cursor).addContacts(1);
+    // The name, note, organization and both phones come first.
+    cursor.moveToPosition(5);
+    cursor.columnLookups = 0;
+
+    assertThat(Item.getEmailLabel(CommonDataKinds.Email.TYPE_CUSTOM, cursor)).isEqualTo("personal");
+    assertThat(cursor.columnLookups).isEqualTo(1);
+    assertThat(Item.getEmailLabel(CommonDataKinds.Email.TYPE_WORK, cursor)).isEqualTo("work");
+    assertThat(cursor.columnLookups).isEqualTo(1);
+  }
+
+  @Test
+  public void readContacts_fromACacheWarmedWithThumbnails_returnsNoneUnlessAsked() {
+    ThumbnailProvider provider = Robolectric.buildContentProvider(ThumbnailProvider.class)
+        .create(ContactsContract.AUTHORITY).get();
+    ContentResolver contentResolver = RuntimeEnvironment.application.getContentResolver();
+    ContactsCache cache = new ContactsCache(new File(RuntimeEnvironment.application.getCacheDir(), "contacts_service.cache"),
+        contentResolver);
+
+    ArrayList<Contact> withThumbnails = new GetContactsTask(contentResolver, null, true, false, null, null, cache)
+        .readContacts(null);
+    ArrayList<Contact> withoutThumbnails = new GetContactsTask(contentResolver, null, false, false, null, null, cache)
+        .readContacts(null);
+
+    assertThat(withThumbnails.get(0).avatar).isEqualTo(ThumbnailProvider.THUMBNAIL);
+    assertThat(withoutThumbnails.get(0).avatar).isEmpty();
+    assertThat(provider.rowsReadWithThumbnails).isFalse();
+    cache.close();
+  }
+
+  /**
+   * Serves a single contact with a thumbnail, and remembers whether its rows were read along with the thumbnail
+   */
+  public static class ThumbnailProvider extends FakeContentProvider {
+
+    static final byte[] THUMBNAIL = {1, 2, 3};
+
+    boolean rowsReadWithThumbnails;
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+      MatrixCursor cursor = new MatrixCursor(projection);
+      if (uri.getPathSegments().contains(ContactsContract.Contacts.Photo.CONTENT_DIRECTORY)) {
+        cursor.addRow(new Object[]{THUMBNAIL});
+      } else if (uri.equals(ContactsContract.Data.CONTENT_URI)) {
+        ContactsDataFixture fixture = new ContactsDataFixture(cursor).addContact(1);
+        if (Arrays.asList(projection).contains(CommonDataKinds.Photo.PHOTO)) {
+          rowsReadWithThumbnails = true;
+          fixture.addRow(1, "Given1 Family1", CommonDataKinds.Photo.CONTENT_ITEM_TYPE,
+              ContactsContract.Data._ID, 10, ContactsContract.Contacts.PHOTO_ID, 10,
+              CommonDataKinds.Photo.PHOTO, THUMBNAIL);
+        }
+      }
+      // The contacts and deleted contacts are left empty, so there are no changes to read.
+      return cursor;
+    }
+  }
+
+  private static class CountingCursor extends MatrixCursor {
+    int columnLookups;
+
+    CountingCursor() {
+      super(GetContactsTask.PROJECTION);
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+      columnLookups++;
+      return super.getColumnIndex(columnName);
+    }
+  }
+}
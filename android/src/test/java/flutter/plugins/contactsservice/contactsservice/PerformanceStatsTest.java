@@ -0,0 +1,84 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.HashMap;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PerformanceStatsTest {
+
+  @After
+  public void tearDown() {
+    PerformanceStats.setEnabled(false);
+    PerformanceStats.get(true);
+  }
+
+  @Test
+  public void disabled_recordsNothing() {
+    long start = PerformanceStats.begin(PerformanceStats.SORT);
+    PerformanceStats.end(PerformanceStats.SORT, start);
+    PerformanceStats.count(PerformanceStats.ROWS, 7);
+
+    assertThat(start).isEqualTo(0L);
+    assertThat(PerformanceStats.get(false)).isEmpty();
+  }
+
+  @Test
+  public void count_reportsPercentilesOfTheSamples() {
+    PerformanceStats.setEnabled(true);
+    for (int rows = 1; rows <= 100; rows++) {
+      PerformanceStats.count(PerformanceStats.ROWS, rows);
+    }
+
+    HashMap<String, Object> rows = PerformanceStats.get(false).get(PerformanceStats.ROWS);
+    assertThat(rows.get("count")).isEqualTo(100L);
+    assertThat(rows.get("sum")).isEqualTo(5050L);
+    assertThat(rows.get("max")).isEqualTo(100L);
+    assertThat(rows.get("p50")).isEqualTo(50L);
+    assertThat(rows.get("p95")).isEqualTo(95L);
+    assertThat(rows.get("p99")).isEqualTo(99L);
+  }
+
+  @Test
+  public void count_keepsOnlyTheLastSamplesForPercentiles() {
+    PerformanceStats.setEnabled(true);
+    for (int i = 0; i < PerformanceStats.WINDOW; i++) {
+      PerformanceStats.count(PerformanceStats.BYTES, 1000);
+    }
+    for (int i = 0; i < PerformanceStats.WINDOW; i++) {
+      PerformanceStats.count(PerformanceStats.BYTES, 1);
+    }
+
+    HashMap<String, Object> bytes = PerformanceStats.get(false).get(PerformanceStats.BYTES);
+    assertThat(bytes.get("count")).isEqualTo(2L * PerformanceStats.WINDOW);
+    assertThat(bytes.get("max")).isEqualTo(1000L);
+    assertThat(bytes.get("p99")).isEqualTo(1L);
+  }
+
+  @Test
+  public void end_recordsTheDurationOfThePhase() {
+    PerformanceStats.setEnabled(true);
+    long start = PerformanceStats.begin(PerformanceStats.SORT);
+    PerformanceStats.end(PerformanceStats.SORT, start);
+
+    assertThat(PerformanceStats.get(true).get(PerformanceStats.SORT).get("count")).isEqualTo(1L);
+    assertThat(PerformanceStats.get(false)).isEmpty();
+  }
+
+  @Test
+  public void getContactsFrom_recordsRowsAndCursorPhases() {
+    PerformanceStats.setEnabled(true);
+    new GetContactsTask(null, null, false, false, false).getContactsFrom(new ContactsDataFixture().addContacts(3).cursor());
+
+    HashMap<String, HashMap<String, Object>> stats = PerformanceStats.get(false);
+    assertThat(stats.get(PerformanceStats.ROWS).get("sum")).isEqualTo(21L);
+    assertThat(stats).containsKey(PerformanceStats.CURSOR_ITERATION);
+    assertThat(stats).containsKey(PerformanceStats.AGGREGATION);
+  }
+}
@@ -0,0 +1,48 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PhoneIndexTest {
+
+  @Test
+  public void getKey_keepsTheLastDigits() {
+    assertThat(PhoneIndex.getKey("+1 (555) 123-4567")).isEqualTo("1234567");
+    assertThat(PhoneIndex.getKey("112")).isEqualTo("112");
+    assertThat(PhoneIndex.getKey("-")).isNull();
+  }
+
+  @Test
+  public void find_matchesNumbersWrittenDifferently() {
+    PhoneIndex index = new PhoneIndex();
+    index.put(1, "+1 555 123 4567");
+    index.put(2, "(555) 123-4567");
+    index.put(3, "555 765 4321");
+
+    assertThat(index.find("5551234567")).containsExactly(1, 2).inOrder();
+    assertThat(index.find("555-765-4321")).containsExactly(3);
+  }
+
+  @Test
+  public void find_doesNotMatchNumbersSharingOnlyTheirLastDigits() {
+    PhoneIndex index = new PhoneIndex();
+    index.put(1, "+1 555 123 4567");
+
+    assertThat(index.find("+1 666 123 4567")).isEmpty();
+  }
+
+  @Test
+  public void find_returnsEachContactOnce() {
+    PhoneIndex index = new PhoneIndex();
+    index.put(1, "555 123 4567");
+    index.put(1, "+15551234567");
+
+    assertThat(index.find("5551234567")).containsExactly(1);
+  }
+}
@@ -0,0 +1,170 @@
+package flutter.plugins.contactsservice.contactsservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.AsyncTask;
+import io.flutter.plugin.common.MethodChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TaskSchedulerTest {
+
+  /** A single thread, so that every task scheduled while the first one blocks is queued */
+  private final TaskScheduler scheduler = new TaskScheduler(1);
+  /** The tasks in the order they ran */
+  private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+  private final CountDownLatch blocking = new CountDownLatch(1);
+  private final CountDownLatch released = new CountDownLatch(1);
+
+  @Test
+  public void schedule_runsTheInteractiveTasksFirst() throws InterruptedException {
+    block(null);
+    schedule("background", TaskScheduler.PRIORITY_BACKGROUND, null, null);
+    schedule("interactive", TaskScheduler.PRIORITY_INTERACTIVE, null, null);
+    schedule("background again", TaskScheduler.PRIORITY_BACKGROUND, null, null);
+    schedule("interactive again", TaskScheduler.PRIORITY_INTERACTIVE, null, null);
+
+    finish();
+
+    assertThat(ran).containsExactly("blocking", "interactive", "interactive again", "background",
+        "background again", "last").inOrder();
+  }
+
+  @Test
+  public void cancel_dropsAQueuedTask() throws InterruptedException {
+    block(null);
+    RecordingResult cancelled = schedule("cancelled", TaskScheduler.PRIORITY_INTERACTIVE, 1, null);
+    RecordingResult kept = schedule("kept", TaskScheduler.PRIORITY_INTERACTIVE, 2, null);
+
+    assertThat(scheduler.cancel(1)).isTrue();
+    assertThat(scheduler.cancel(1)).isFalse();
+    assertThat(scheduler.cancel(3)).isFalse();
+    finish();
+
+    assertThat(ran).containsExactly("blocking", "kept", "last").inOrder();
+    assertThat(cancelled.calls).containsExactly("error " + TaskScheduler.CANCELLED);
+    assertThat(kept.calls).containsExactly("success kept");
+    assertThat(scheduler.cancel(2)).isFalse();
+  }
+
+  @Test
+  public void cancel_neverDeliversTheResultOfARunningTask() throws InterruptedException {
+    RecordingResult result = block(1);
+
+    assertThat(scheduler.cancel(1)).isTrue();
+    finish();
+
+    assertThat(ran).contains("blocking interrupted");
+    assertThat(result.calls).containsExactly("error " + TaskScheduler.CANCELLED);
+  }
+
+  @Test
+  public void schedule_supersedesThePreviousTaskOfTheGroup() throws InterruptedException {
+    block(null);
+    RecordingResult first = schedule("J", TaskScheduler.PRIORITY_INTERACTIVE, 1, "searchContacts");
+    RecordingResult other = schedule("other", TaskScheduler.PRIORITY_INTERACTIVE, 2, null);
+    RecordingResult second = schedule("Jo", TaskScheduler.PRIORITY_INTERACTIVE, 3, "searchContacts");
+
+    assertThat(first.calls).containsExactly("error " + TaskScheduler.CANCELLED);
+    finish();
+
+    assertThat(ran).containsExactly("blocking", "other", "Jo", "last").inOrder();
+    assertThat(first.calls).containsExactly("error " + TaskScheduler.CANCELLED);
+    assertThat(other.calls).containsExactly("success other");
+    assertThat(second.calls).containsExactly("success Jo");
+    // Already superseded, and so no longer cancellable.
+    assertThat(scheduler.cancel(1)).isFalse();
+  }
+
+  /**
+   * Schedules a task that keeps the only thread busy until {@link #finish()}, and waits for it to start
+   */
+  private RecordingResult block(Integer requestId) throws InterruptedException {
+    RecordingResult result = new RecordingResult();
+    scheduler.schedule(new RecordingTask("blocking", true, result), TaskScheduler.PRIORITY_BACKGROUND,
+        requestId, null, result);
+    assertThat(blocking.await(5, TimeUnit.SECONDS)).isTrue();
+    return result;
+  }
+
+  private RecordingResult schedule(String name, int priority, Integer requestId, String group) {
+    RecordingResult result = new RecordingResult();
+    scheduler.schedule(new RecordingTask(name, false, result), priority, requestId, group, result);
+    return result;
+  }
+
+  /**
+   * Releases the blocking task, then waits for every task to run and deliver its result. A last
+   * task of the lowest priority runs after all the others, which delivered theirs before it.
+   */
+  private void finish() throws InterruptedException {
+    released.countDown();
+    RecordingResult last = schedule("last", TaskScheduler.PRIORITY_BACKGROUND, null, null);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (last.calls.isEmpty() && System.currentTimeMillis() < deadline) {
+      ShadowLooper.idleMainLooper();
+      Thread.sleep(10);
+    }
+    assertThat(last.calls).containsExactly("success last");
+  }
+
+  private class RecordingTask extends AsyncTask<Void, Void, String> {
+    final String name;
+    final boolean blocks;
+    final RecordingResult result;
+
+    RecordingTask(String name, boolean blocks, RecordingResult result) {
+      this.name = name;
+      this.blocks = blocks;
+      this.result = result;
+    }
+
+    @Override
+    protected String doInBackground(Void... params) {
+      ran.add(name);
+      if (blocks) {
+        blocking.countDown();
+        try {
+          released.await();
+        } catch (InterruptedException e) {
+          ran.add(name + " interrupted");
+        }
+      }
+      return name;
+    }
+
+    @Override
+    protected void onPostExecute(String name) {
+      result.success(name);
+    }
+  }
+
+  private static class RecordingResult implements MethodChannel.Result {
+    final List<String> calls = new ArrayList<>();
+
+    @Override
+    public void success(Object result) {
+      calls.add("success " + result);
+    }
+
+    @Override
+    public void error(String code, String message, Object details) {
+      calls.add("error " + code);
+    }
+
+    @Override
+    public void notImplemented() {
+      calls.add("notImplemented");
+    }
+  }
+}
@@ -1,4 +1,5 @@
 import 'dart:async';
+import 'dart:convert';
 import 'dart:typed_data';
 
 import 'package:collection/collection.dart';
@@ -10,30 +11,184 @@ export 'share.dart';
 class ContactsService {
   static const MethodChannel _channel =
       MethodChannel('github.com/clovisnicolas/flutter_contacts');
+  static const EventChannel _contactsChannel =
+      EventChannel('github.com/clovisnicolas/flutter_contacts/contacts');
+  static const EventChannel _changesChannel =
+      EventChannel('github.com/clovisnicolas/flutter_contacts/changes');
+  static Stream<ContactsChangeEvent> _onContactsChanged;
+
+  /// Notifies of changes made to the device contacts, by this app or any
+  /// other. Bursts of changes are reported as a single event. The contacts
+  /// are only observed while the stream is listened to. Only implemented on
+  /// Android.
+  static Stream<ContactsChangeEvent> get onContactsChanged =>
+      _onContactsChanged ??= _changesChannel
+          .receiveBroadcastStream()
+          .map((m) => ContactsChangeEvent._fromMap(m));
 
   /// Fetches all contacts, or when specified, the contacts with a name
-  /// matching [query]
+  /// matching [query]. When [fields] is given, only those [ContactField]s
+  /// are read, along with the identifier and display name; this is only
+  /// implemented on Android.
+  ///
+  /// With [withThumbnails], the avatars are returned on Android as stored by
+  /// the contacts provider, usually a JPEG, like [getAvatar] with `raw: true`.
+  ///
+  /// With [useCache], all the contacts are kept on the device between calls
+  /// and only the contacts changed since the previous call are read again.
+  /// The cache is not used when a [query] or [fields] are given. Only
+  /// implemented on Android 4.3 and later.
+  ///
+  /// [sortBy] is one of the [ContactSortOrder]s, and takes precedence over
+  /// [orderByGivenName]; it is only implemented on Android.
+  ///
+  /// With [compact], the contacts are sent over the platform channel as a
+  /// single compact byte array rather than as one map per contact, phone,
+  /// email and address, which is much cheaper for large address books. Only
+  /// implemented on Android.
+  ///
+  /// With [parallel], the contacts are read in ranges of identifiers at the
+  /// same time, one per core, which is faster for address books of many
+  /// thousands of contacts on multi-core devices. Only implemented on
+  /// Android.
+  ///
+  /// A call given a [requestId] can be cancelled with [cancel].
   static Future<Iterable<Contact>> getContacts(
       {String query,
       bool withThumbnails = true,
       bool photoHighResolution = true,
-      bool orderByGivenName = true}) async {
-    Iterable contacts =
+      bool orderByGivenName = true,
+      String sortBy,
+      Iterable<String> fields,
+      bool useCache = false,
+      bool compact = false,
+      bool parallel = false,
+      int requestId}) async {
+    final contacts =
         await _channel.invokeMethod('getContacts', <String, dynamic>{
       'query': query,
       'withThumbnails': withThumbnails,
       'photoHighResolution': photoHighResolution,
-      'orderByGivenName': orderByGivenName
+      'orderByGivenName': orderByGivenName,
+      'sortBy': sortBy,
+      'fields': fields?.toList(),
+      'useCache': useCache,
+      'compact': compact,
+      'parallel': parallel,
+      'requestId': requestId
+    });
+    if (contacts is Uint8List) {
+      return _ContactsDecoder(contacts).decode();
+    }
+    return (contacts as Iterable).map((m) => Contact.fromMap(m));
+  }
+
+  /// Fetches at most [limit] contacts, ordered by identifier, whose
+  /// identifier is greater than [afterIdentifier]. To fetch the next page,
+  /// pass the identifier of the last contact of the previous page. An empty
+  /// result means there are no more contacts. Only implemented on Android.
+  /// A call given a [requestId] can be cancelled with [cancel].
+  static Future<Iterable<Contact>> getContactsPage(
+      {String query,
+      int afterIdentifier,
+      int limit = 100,
+      bool withThumbnails = true,
+      bool photoHighResolution = true,
+      int requestId}) async {
+    Iterable contacts =
+        await _channel.invokeMethod('getContactsPage', <String, dynamic>{
+      'query': query,
+      'afterIdentifier': afterIdentifier,
+      'limit': limit,
+      'withThumbnails': withThumbnails,
+      'photoHighResolution': photoHighResolution,
+      'requestId': requestId
+    });
+    return contacts.map((m) => Contact.fromMap(m));
+  }
+
+  /// Streams all contacts, or when specified, the contacts with a name
+  /// matching [query], in batches of at most [batchSize] contacts ordered by
+  /// identifier. Batches are sent as soon as they are read, so the first
+  /// contacts can be shown before the whole address book has been loaded.
+  /// Only one stream can be listened to at a time. Only implemented on
+  /// Android.
+  static Stream<Iterable<Contact>> streamContacts(
+          {String query,
+          int batchSize = 200,
+          bool withThumbnails = true,
+          bool photoHighResolution = true}) =>
+      _contactsChannel.receiveBroadcastStream(<String, dynamic>{
+        'query': query,
+        'batchSize': batchSize,
+        'withThumbnails': withThumbnails,
+        'photoHighResolution': photoHighResolution
+      }).map((batch) => (batch as Iterable).map((m) => Contact.fromMap(m)));
+
+  /// Fetches the contacts added or updated after [since], and the identifiers
+  /// of the contacts deleted since then. Pass 0 for the first sync, then the
+  /// [ContactChanges.timestamp] and [ContactChanges.lastIdentifier] of the
+  /// previous result, the latter as [sinceIdentifier], so that contacts
+  /// changed in the same millisecond are each returned once. Only implemented
+  /// on Android 4.3 and later. A call given a [requestId] can be cancelled
+  /// with [cancel].
+  static Future<ContactChanges> getContactsChangedSince(int since,
+      {int sinceIdentifier = 0,
+      bool withThumbnails = false,
+      bool photoHighResolution = true,
+      int requestId}) async {
+    Map changes = await _channel
+        .invokeMethod('getContactsChangedSince', <String, dynamic>{
+      'since': since,
+      'sinceIdentifier': sinceIdentifier,
+      'withThumbnails': withThumbnails,
+      'photoHighResolution': photoHighResolution,
+      'requestId': requestId
+    });
+    return ContactChanges.fromMap(changes);
+  }
+
+  /// Fetches the contacts having, for each word of [query], a name, company
+  /// or email word starting with it, or a phone number containing it: "jo sm"
+  /// finds John Smith. Accents and case are ignored. The contacts are searched
+  /// in an index kept on the native side, so this is cheap enough to call at
+  /// every keystroke. Only implemented on Android.
+  ///
+  /// A search still running when the next one starts is cancelled, and its
+  /// future completes with a [PlatformException] of code [cancelledCode].
+  /// A call given a [requestId] can also be cancelled with [cancel].
+  static Future<Iterable<Contact>> searchContacts(String query,
+      {bool withThumbnails = true,
+      bool photoHighResolution = true,
+      bool orderByGivenName = true,
+      String sortBy,
+      Iterable<String> fields,
+      int requestId}) async {
+    Iterable contacts =
+        await _channel.invokeMethod('searchContacts', <String, dynamic>{
+      'query': query,
+      'withThumbnails': withThumbnails,
+      'photoHighResolution': photoHighResolution,
+      'orderByGivenName': orderByGivenName,
+      'sortBy': sortBy,
+      'fields': fields?.toList(),
+      'requestId': requestId
     });
     return contacts.map((m) => Contact.fromMap(m));
   }
 
   /// Fetches all contacts, or when specified, the contacts with a name
-  /// matching [query]
+  /// matching [query]. When [fields] is given, only those [ContactField]s
+  /// are read, along with the identifier and display name; this is only
+  /// implemented on Android. A call given a [requestId] can be cancelled with
+  /// [cancel].
   static Future<Iterable<Contact>> getContactsForPhone(String phone,
       {bool withThumbnails = true,
       bool photoHighResolution = true,
-      bool orderByGivenName = true}) async {
+      bool orderByGivenName = true,
+      String sortBy,
+      Iterable<String> fields,
+      int requestId}) async {
     if (phone == null || phone.isEmpty) return Iterable.empty();
 
     Iterable contacts =
@@ -41,7 +196,64 @@ class ContactsService {
       'phone': phone,
       'withThumbnails': withThumbnails,
       'photoHighResolution': photoHighResolution,
-      'orderByGivenName': orderByGivenName
+      'orderByGivenName': orderByGivenName,
+      'sortBy': sortBy,
+      'fields': fields?.toList(),
+      'requestId': requestId
+    });
+    return contacts.map((m) => Contact.fromMap(m));
+  }
+
+  /// Fetches the contacts of each of the given [phones] at once, such as the
+  /// numbers of a call log, which is much faster than calling
+  /// [getContactsForPhone] for each of them. Numbers match when they end with
+  /// the same digits and are otherwise compatible, so "+1 555 123 4567"
+  /// matches "(555) 123-4567". Every number is a key of the result, mapped to
+  /// an empty list when no contact has it. Only implemented on Android.
+  /// A call given a [requestId] can be cancelled with [cancel].
+  static Future<Map<String, List<Contact>>> getContactsForPhones(
+      Iterable<String> phones,
+      {bool withThumbnails = true,
+      bool photoHighResolution = true,
+      bool orderByGivenName = true,
+      String sortBy,
+      Iterable<String> fields,
+      int requestId}) async {
+    final Map contacts =
+        await _channel.invokeMethod('getContactsForPhones', <String, dynamic>{
+      'phones': phones.toList(),
+      'withThumbnails': withThumbnails,
+      'photoHighResolution': photoHighResolution,
+      'orderByGivenName': orderByGivenName,
+      'sortBy': sortBy,
+      'fields': fields?.toList(),
+      'requestId': requestId
+    });
+    return contacts.map((phone, m) => MapEntry(phone as String,
+        (m as Iterable).map((m) => Contact.fromMap(m)).toList()));
+  }
+
+  /// Fetches the contacts with the given [identifiers], e.g. to refresh the
+  /// contact shown by a detail screen, which only reads the rows of these
+  /// contacts rather than all of them. Identifiers of deleted contacts are
+  /// left out of the result. Only implemented on Android. A call given a
+  /// [requestId] can be cancelled with [cancel].
+  static Future<Iterable<Contact>> getContactsByIds(Iterable<int> identifiers,
+      {bool withThumbnails = true,
+      bool photoHighResolution = true,
+      bool orderByGivenName = true,
+      String sortBy,
+      Iterable<String> fields,
+      int requestId}) async {
+    Iterable contacts =
+        await _channel.invokeMethod('getContactsByIds', <String, dynamic>{
+      'identifiers': identifiers.toList(),
+      'withThumbnails': withThumbnails,
+      'photoHighResolution': photoHighResolution,
+      'orderByGivenName': orderByGivenName,
+      'sortBy': sortBy,
+      'fields': fields?.toList(),
+      'requestId': requestId
     });
     return contacts.map((m) => Contact.fromMap(m));
   }
@@ -49,13 +261,107 @@ class ContactsService {
   /// Loads the avatar for the given contact and returns it. If the user does
   /// not have an avatar, then `null` is returned in that slot. Only implemented
   /// on Android.
-  static Future<Uint8List> getAvatar(
-      final Contact contact, {final bool photoHighRes = true}) =>
+  ///
+  /// With [raw], the photo is returned as stored by the contacts provider
+  /// (usually a JPEG) instead of being decoded and encoded again as a PNG.
+  /// With [size], the photo is downscaled so that its longest side is at
+  /// most [size] pixels, and returned as a JPEG.
+  ///
+  /// A call given a [requestId] can be cancelled with [cancel].
+  static Future<Uint8List> getAvatar(final Contact contact,
+          {final bool photoHighRes = true,
+          final bool raw = false,
+          final int size,
+          final int requestId}) =>
+      getAvatarById(contact.identifier,
+          photoHighRes: photoHighRes,
+          raw: raw,
+          size: size,
+          requestId: requestId);
+
+  /// Loads the avatar of the contact with the given [identifier], like
+  /// [getAvatar] but without sending the whole contact. Only implemented on
+  /// Android.
+  static Future<Uint8List> getAvatarById(final int identifier,
+          {final bool photoHighRes = true,
+          final bool raw = false,
+          final int size,
+          final int requestId}) =>
       _channel.invokeMethod('getAvatar', <String, dynamic>{
-        'contact': Contact._toMap(contact),
+        'identifier': identifier,
         'photoHighResolution': photoHighRes,
+        'raw': raw,
+        'size': size ?? 0,
+        'requestId': requestId,
+      });
+
+  /// Loads the avatars of the contacts with the given [identifiers] in a
+  /// single call, e.g. to prefetch the avatars of the contacts about to be
+  /// displayed. Up to [concurrency] avatars are read at the same time.
+  /// Contacts without an avatar are left out of the returned map. See
+  /// [getAvatar] for [photoHighRes], [raw] and [size]. Only implemented on
+  /// Android. A call given a [requestId] can be cancelled with [cancel], e.g.
+  /// when the contacts scrolled out of view.
+  static Future<Map<int, Uint8List>> getAvatars(final Iterable<int> identifiers,
+      {final bool photoHighRes = true,
+      final bool raw = false,
+      final int size,
+      final int concurrency,
+      final int requestId}) async {
+    final Map avatars =
+        await _channel.invokeMethod('getAvatars', <String, dynamic>{
+      'identifiers': identifiers.toList(),
+      'photoHighResolution': photoHighRes,
+      'raw': raw,
+      'size': size ?? 0,
+      'concurrency': concurrency,
+      'requestId': requestId,
+    });
+    return avatars.cast<int, Uint8List>();
+  }
+
+  /// Code of the [PlatformException] a cancelled call completes with.
+  static const String cancelledCode = 'CANCELLED';
+
+  static int _nextRequestId = 0;
+
+  /// Returns a new identifier to give to a call, to [cancel] it later.
+  static int newRequestId() => ++_nextRequestId;
+
+  /// Cancels the call given [requestId], which then completes with a
+  /// [PlatformException] of code [cancelledCode] unless it already completed.
+  /// A cancelled read stops at once rather than competing with the next one.
+  /// Returns whether the call was cancelled. Only implemented on Android.
+  static Future<bool> cancel(int requestId) =>
+      _channel.invokeMethod('cancel', <String, dynamic>{
+        'requestId': requestId,
+      });
+
+  /// Starts or stops recording where the time of the plugin goes, see
+  /// [getPerformanceStats]. While enabled, each phase is also traced as a
+  /// section of the same name, shown by systrace and Perfetto. Disabled by
+  /// default. Only implemented on Android.
+  static Future<void> setPerformanceStatsEnabled(bool enabled) =>
+      _channel.invokeMethod('setPerformanceStatsEnabled', <String, dynamic>{
+        'enabled': enabled,
       });
 
+  /// Returns the distribution of each metric recorded since the stats were
+  /// enabled or last [reset], keyed by name: the durations of the phases of
+  /// the calls, in microseconds ("query", "cursorIteration", "aggregation",
+  /// "photoDecode", "sort", "toMap", "applyBatch", "photoWrite"), and the
+  /// counts of "rows", "contacts", "bytes", "queueDepth" and "operations".
+  /// Only implemented on Android.
+  static Future<Map<String, PerformanceHistogram>> getPerformanceStats(
+      {bool reset = false}) async {
+    final Map stats =
+        await _channel.invokeMethod('getPerformanceStats', <String, dynamic>{
+      'reset': reset,
+    });
+    return stats.map((name, m) =>
+        MapEntry(name as String, PerformanceHistogram.fromMap(m)));
+  }
+
   /// Adds the [contact] to the device contact list
   static Future addContact(Contact contact) =>
       _channel.invokeMethod('addContact', Contact._toMap(contact));
@@ -64,9 +370,124 @@ class ContactsService {
   static Future deleteContact(Contact contact) =>
       _channel.invokeMethod('deleteContact', Contact._toMap(contact));
 
-  /// Updates the [contact] if it has a valid identifier
+  /// Updates the [contact] if it has a valid identifier. On Android, an
+  /// avatar that is already the photo of the contact, as returned by
+  /// [getAvatar] with `raw: true`, is not written again.
   static Future updateContact(Contact contact) =>
       _channel.invokeMethod('updateContact', Contact._toMap(contact));
+
+  /// Adds all the [contacts] to the device contact list, with far fewer
+  /// round trips than calling [addContact] for each of them. Returns whether
+  /// each contact was added, in the order of [contacts]. Only implemented on
+  /// Android.
+  static Future<List<bool>> addContacts(Iterable<Contact> contacts) =>
+      _writeContacts('addContacts', contacts);
+
+  /// Deletes all the [contacts], see [addContacts]. Only implemented on
+  /// Android.
+  static Future<List<bool>> deleteContacts(Iterable<Contact> contacts) =>
+      _writeContacts('deleteContacts', contacts);
+
+  /// Updates all the [contacts], see [addContacts]. Only implemented on
+  /// Android.
+  static Future<List<bool>> updateContacts(Iterable<Contact> contacts) =>
+      _writeContacts('updateContacts', contacts);
+
+  static Future<List<bool>> _writeContacts(
+      String method, Iterable<Contact> contacts) async {
+    final List results = await _channel.invokeMethod(
+        method, contacts.map((contact) => Contact._toMap(contact)).toList());
+    return results.cast<bool>();
+  }
+}
+
+/// Changes made to the contacts, see [ContactsService.getContactsChangedSince]
+class ContactChanges {
+  ContactChanges.fromMap(Map m) {
+    updated = (m["updated"] as Iterable).map((m) => Contact.fromMap(m));
+    deleted = (m["deleted"] as Iterable).cast<int>();
+    timestamp = m["timestamp"];
+    lastIdentifier = m["lastIdentifier"];
+    complete = m["complete"];
+  }
+
+  /// The contacts added or updated
+  Iterable<Contact> updated;
+
+  /// The identifiers of the deleted contacts
+  Iterable<int> deleted;
+
+  /// The time of the latest change, to pass to the next call
+  int timestamp;
+
+  /// The identifier of the last contact changed at [timestamp], to pass to
+  /// the next call as its `sinceIdentifier`
+  int lastIdentifier;
+
+  /// False when some deletions could not be reported because the device no
+  /// longer keeps track of them, in which case all contacts should be read
+  /// again
+  bool complete;
+}
+
+/// A change to the device contacts, see [ContactsService.onContactsChanged]
+class ContactsChangeEvent {
+  ContactsChangeEvent._fromMap(Map m) {
+    updated = (m["updated"] as Iterable).cast<int>();
+    deleted = (m["deleted"] as Iterable).cast<int>();
+  }
+
+  /// The identifiers of the contacts added or updated. Always empty before
+  /// Android 4.3, where only the fact that something changed is known.
+  Iterable<int> updated;
+
+  /// The identifiers of the deleted contacts. Always empty before Android
+  /// 4.3.
+  Iterable<int> deleted;
+}
+
+/// The distribution of the samples of a metric, the percentiles covering the
+/// latest ones
+class PerformanceHistogram {
+  PerformanceHistogram.fromMap(Map m) {
+    count = m["count"];
+    sum = m["sum"];
+    max = m["max"];
+    p50 = m["p50"];
+    p95 = m["p95"];
+    p99 = m["p99"];
+  }
+
+  int count;
+  int sum;
+  int max;
+  int p50;
+  int p95;
+  int p99;
+}
+
+/// The orders [ContactsService.getContacts] can return contacts in. The
+/// display name orders follow the sort keys of the contacts provider, which
+/// suit the language of the device.
+class ContactSortOrder {
+  static const String givenName = 'givenName';
+  static const String familyName = 'familyName';
+  static const String displayName = 'displayName';
+
+  /// By display name, with the family name first.
+  static const String displayNameAlternative = 'displayNameAlternative';
+  static const String identifier = 'identifier';
+}
+
+/// Names of the contact fields that can be requested when fetching contacts
+class ContactField {
+  static const String name = 'name';
+  static const String note = 'note';
+  static const String phones = 'phones';
+  static const String emails = 'emails';
+  static const String organization = 'organization';
+  static const String postalAddresses = 'postalAddresses';
+  static const String birthday = 'birthday';
 }
 
 class Contact {
@@ -338,3 +759,109 @@ class Item {
 
   static Map _toMap(Item i) => {"label": i.label, "value": i.value};
 }
+
+/// Decodes the contacts encoded by ContactsCodec on Android, see its
+/// documentation for the layout
+class _ContactsDecoder {
+  _ContactsDecoder(this._bytes);
+
+  static const int _version = 1;
+  static const int _name = 1;
+  static const int _organization = 1 << 1;
+  static const int _note = 1 << 2;
+  static const int _birthday = 1 << 3;
+  static const int _emails = 1 << 4;
+  static const int _phones = 1 << 5;
+  static const int _postalAddresses = 1 << 6;
+
+  final Uint8List _bytes;
+  int _offset = 0;
+  List<String> _strings;
+
+  List<Contact> decode() {
+    final version = _bytes[_offset++];
+    if (version != _version) {
+      throw FormatException('Unsupported contacts encoding $version');
+    }
+    final fields = _bytes[_offset++];
+    _strings = List<String>(_readVarint());
+    for (var i = 0; i < _strings.length; i++) {
+      final length = _readVarint();
+      _strings[i] = utf8.decode(
+          Uint8List.view(_bytes.buffer, _bytes.offsetInBytes + _offset, length));
+      _offset += length;
+    }
+
+    final contacts = List<Contact>(_readVarint());
+    for (var i = 0; i < contacts.length; i++) {
+      contacts[i] = _readContact(fields);
+    }
+    return contacts;
+  }
+
+  Contact _readContact(int fields) {
+    final contact = Contact();
+    contact.identifier = _readVarint();
+    contact.displayName = _readString();
+    final avatarLength = _readVarint();
+    if (avatarLength > 0) {
+      contact.avatar = _bytes.sublist(_offset, _offset + avatarLength - 1);
+      _offset += avatarLength - 1;
+    }
+    if (fields & _name != 0) {
+      contact.givenName = _readString();
+      contact.middleName = _readString();
+      contact.familyName = _readString();
+      contact.prefix = _readString();
+      contact.suffix = _readString();
+    }
+    if (fields & _organization != 0) {
+      contact.company = _readString();
+      contact.jobTitle = _readString();
+    }
+    if (fields & _note != 0) {
+      // Notes are not part of the Dart model yet.
+      _readString();
+    }
+    if (fields & _birthday != 0) {
+      final birthday = _readString();
+      contact.birthday = birthday != null ? DateTime.tryParse(birthday) : null;
+    }
+    contact.emails = fields & _emails != 0 ? _readItems() : null;
+    contact.phones = fields & _phones != 0 ? _readItems() : null;
+    if (fields & _postalAddresses != 0) {
+      contact.postalAddresses = List<PostalAddress>.generate(
+          _readVarint(),
+          (_) => PostalAddress(
+              label: _readString(),
+              street: _readString(),
+              city: _readString(),
+              postcode: _readString(),
+              region: _readString(),
+              country: _readString()));
+    } else {
+      contact.postalAddresses = null;
+    }
+    return contact;
+  }
+
+  List<Item> _readItems() => List<Item>.generate(_readVarint(),
+      (_) => Item(label: _readString(), value: _readString()));
+
+  String _readString() {
+    final index = _readVarint();
+    return index == 0 ? null : _strings[index - 1];
+  }
+
+  int _readVarint() {
+    var value = 0;
+    var shift = 0;
+    int byte;
+    do {
+      byte = _bytes[_offset++];
+      value |= (byte & 0x7F) << shift;
+      shift += 7;
+    } while (byte & 0x80 != 0);
+    return value;
+  }
+}
@@ -1,3 +1,4 @@
+import 'dart:async';
 import 'dart:typed_data';
 
 import 'package:contacts_service/contacts_service.dart';
@@ -7,9 +8,23 @@ import 'package:flutter_test/flutter_test.dart';
 void main() {
   const MethodChannel channel = MethodChannel('github.com/clovisnicolas/flutter_contacts');
   final List<MethodCall> log = <MethodCall>[];
+  // The calls given a request identifier, which only complete once cancelled.
+  final Map<int, Completer<void>> pending = <int, Completer<void>>{};
   channel.setMockMethodCallHandler((MethodCall methodCall) async {
     log.add(methodCall);
-    if (methodCall.method == 'getContacts') {
+    if (methodCall.method == 'getContacts' &&
+        methodCall.arguments['requestId'] != null) {
+      final Completer<void> cancelled = Completer<void>();
+      pending[methodCall.arguments['requestId']] = cancelled;
+      await cancelled.future;
+      throw PlatformException(code: ContactsService.cancelledCode);
+    } else if (methodCall.method == 'getContacts' && methodCall.arguments['compact']) {
+      return Uint8List.fromList([
+        1, 32, // Version and fields: phones only
+        3, 3, 65, 110, 110, 6, 109, 111, 98, 105, 108, 101, 3, 53, 53, 53,
+        1, 1, 1, 1, 1, 2, 3,
+      ]);
+    } else if (methodCall.method == 'getContacts') {
       return [
         {'givenName': 'givenName1'},
         {
@@ -23,8 +38,60 @@ void main() {
           'birthday': '1994-02-01'
         },
       ];
+    } else if (methodCall.method == 'getContactsPage') {
+      return [
+        {'identifier': 4, 'givenName': 'givenName4'},
+        {'identifier': 7, 'givenName': 'givenName7'},
+      ];
+    } else if (methodCall.method == 'searchContacts') {
+      return [
+        {'identifier': 4, 'givenName': 'John', 'familyName': 'Smith'},
+      ];
+    } else if (methodCall.method == 'getContactsForPhones') {
+      return {
+        '555-0100': [
+          {'identifier': 4, 'givenName': 'givenName4'},
+        ],
+        '555-0199': [],
+      };
+    } else if (methodCall.method == 'getContactsByIds') {
+      return [
+        {'identifier': 7, 'givenName': 'givenName7'},
+      ];
+    } else if (methodCall.method == 'getContactsChangedSince') {
+      return {
+        'updated': [
+          {'identifier': 4, 'givenName': 'givenName4'},
+        ],
+        'deleted': [5, 6],
+        'timestamp': 1571000000000,
+        'lastIdentifier': 4,
+        'complete': true,
+      };
     } else if (methodCall.method == 'getAvatar') {
       return Uint8List.fromList([0, 1, 2, 3]);
+    } else if (methodCall.method == 'cancel') {
+      final Completer<void> cancelled =
+          pending.remove(methodCall.arguments['requestId']);
+      cancelled?.complete();
+      return cancelled != null;
+    } else if (methodCall.method == 'getPerformanceStats') {
+      return {
+        'query': {
+          'count': 2,
+          'sum': 3000,
+          'max': 2000,
+          'p50': 1000,
+          'p95': 2000,
+          'p99': 2000,
+        },
+      };
+    } else if (methodCall.method == 'addContacts') {
+      return [true, false];
+    } else if (methodCall.method == 'getAvatars') {
+      return {
+        1: Uint8List.fromList([0, 1, 2, 3]),
+      };
     }
     return null;
   });
@@ -53,6 +120,137 @@ void main() {
     expect(contacts.toList()[1].birthday, DateTime(1994, 2, 1));
   });
 
+  test('should only request the given fields', () async {
+    await ContactsService.getContacts(
+        withThumbnails: false,
+        fields: [ContactField.name, ContactField.phones]);
+
+    expect(log, <Matcher>[
+      isMethodCall('getContacts', arguments: <String, dynamic>{
+        'query': null,
+        'withThumbnails': false,
+        'photoHighResolution': true,
+        'orderByGivenName': true,
+        'sortBy': null,
+        'fields': ['name', 'phones'],
+        'useCache': false,
+        'compact': false,
+        'parallel': false,
+        'requestId': null,
+      })
+    ]);
+  });
+
+  test('should decode compact contacts', () async {
+    final contacts = await ContactsService.getContacts(
+        fields: [ContactField.phones], compact: true);
+
+    final contact = contacts.single;
+    expect(contact.identifier, 1);
+    expect(contact.displayName, 'Ann');
+    expect(contact.givenName, isNull);
+    expect(contact.emails, isNull);
+    expect(contact.phones, [Item(label: 'mobile', value: '555')]);
+    expect(contact.avatar, isEmpty);
+  });
+
+  test('should search contacts', () async {
+    final contacts = await ContactsService.searchContacts('jo sm',
+        withThumbnails: false, fields: [ContactField.phones]);
+
+    expect(log, <Matcher>[
+      isMethodCall('searchContacts', arguments: <String, dynamic>{
+        'query': 'jo sm',
+        'withThumbnails': false,
+        'photoHighResolution': true,
+        'orderByGivenName': true,
+        'sortBy': null,
+        'fields': [ContactField.phones],
+        'requestId': null,
+      })
+    ]);
+
+    expect(contacts.single.familyName, 'Smith');
+  });
+
+  test('should get contacts for phones', () async {
+    final contacts =
+        await ContactsService.getContactsForPhones(['555-0100', '555-0199']);
+
+    expect(log, <Matcher>[
+      isMethodCall('getContactsForPhones', arguments: <String, dynamic>{
+        'phones': ['555-0100', '555-0199'],
+        'withThumbnails': true,
+        'photoHighResolution': true,
+        'orderByGivenName': true,
+        'sortBy': null,
+        'fields': null,
+        'requestId': null,
+      })
+    ]);
+
+    expect(contacts['555-0100'].single.identifier, 4);
+    expect(contacts['555-0199'], isEmpty);
+  });
+
+  test('should get contacts by identifiers', () async {
+    final contacts = await ContactsService.getContactsByIds([7, 8]);
+
+    expect(log, <Matcher>[
+      isMethodCall('getContactsByIds', arguments: <String, dynamic>{
+        'identifiers': [7, 8],
+        'withThumbnails': true,
+        'photoHighResolution': true,
+        'orderByGivenName': true,
+        'sortBy': null,
+        'fields': null,
+        'requestId': null,
+      })
+    ]);
+
+    expect(contacts.single.givenName, 'givenName7');
+  });
+
+  test('should get a page of contacts', () async {
+    final contacts =
+        await ContactsService.getContactsPage(afterIdentifier: 3, limit: 2);
+
+    expect(log, <Matcher>[
+      isMethodCall('getContactsPage', arguments: <String, dynamic>{
+        'query': null,
+        'afterIdentifier': 3,
+        'limit': 2,
+        'withThumbnails': true,
+        'photoHighResolution': true,
+        'requestId': null,
+      })
+    ]);
+
+    expect(contacts.length, 2);
+    expect(contacts.last.identifier, 7);
+  });
+
+  test('should get contacts changed since a timestamp', () async {
+    final changes = await ContactsService.getContactsChangedSince(1570000000000,
+        sinceIdentifier: 2);
+
+    expect(log, <Matcher>[
+      isMethodCall('getContactsChangedSince', arguments: <String, dynamic>{
+        'since': 1570000000000,
+        'sinceIdentifier': 2,
+        'withThumbnails': false,
+        'photoHighResolution': true,
+        'requestId': null,
+      })
+    ]);
+
+    expect(changes.updated.single.identifier, 4);
+    expect(changes.deleted, [5, 6]);
+    expect(changes.timestamp, 1571000000000);
+    expect(changes.lastIdentifier, 4);
+    expect(changes.complete, true);
+  });
+
   test('should get avatar for contact identifiers', () async {
     final contact = Contact(givenName: 'givenName');
 
@@ -60,8 +258,27 @@ void main() {
 
     expect(log, <Matcher>[
       isMethodCall('getAvatar', arguments: <String, dynamic>{
-        'contact': contact.toMap(),
+        'identifier': contact.identifier,
         'photoHighResolution': true,
+        'raw': false,
+        'size': 0,
+        'requestId': null,
+      })
+    ]);
+
+    expect(avatar, Uint8List.fromList([0, 1, 2, 3]));
+  });
+
+  test('should get avatar by identifier', () async {
+    final avatar = await ContactsService.getAvatarById(7, size: 96);
+
+    expect(log, <Matcher>[
+      isMethodCall('getAvatar', arguments: <String, dynamic>{
+        'identifier': 7,
+        'photoHighResolution': true,
+        'raw': false,
+        'size': 96,
+        'requestId': null,
       })
     ]);
 
@@ -75,12 +292,93 @@ void main() {
 
     expect(log, <Matcher>[
       isMethodCall('getAvatar', arguments: <String, dynamic>{
-        'contact': contact.toMap(),
+        'identifier': contact.identifier,
         'photoHighResolution': false,
+        'raw': false,
+        'size': 0,
+        'requestId': null,
+      })
+    ]);
+  });
+
+  test('should get raw downscaled avatar', () async {
+    final contact = Contact(givenName: 'givenName');
+
+    await ContactsService.getAvatar(contact, raw: true, size: 96);
+
+    expect(log, <Matcher>[
+      isMethodCall('getAvatar', arguments: <String, dynamic>{
+        'identifier': contact.identifier,
+        'photoHighResolution': true,
+        'raw': true,
+        'size': 96,
+        'requestId': null,
       })
     ]);
   });
 
+  test('should get avatars for contact identifiers', () async {
+    final avatars = await ContactsService.getAvatars([1, 2], concurrency: 2);
+
+    expect(log, <Matcher>[
+      isMethodCall('getAvatars', arguments: <String, dynamic>{
+        'identifiers': [1, 2],
+        'photoHighResolution': true,
+        'raw': false,
+        'size': 0,
+        'concurrency': 2,
+        'requestId': null,
+      })
+    ]);
+
+    expect(avatars, {1: Uint8List.fromList([0, 1, 2, 3])});
+  });
+
+  test('should cancel a request', () async {
+    final requestId = ContactsService.newRequestId();
+    final contacts = ContactsService.getContacts(requestId: requestId);
+
+    expect(await ContactsService.cancel(requestId), isTrue);
+    expect(log.last,
+        isMethodCall('cancel', arguments: <String, dynamic>{'requestId': requestId}));
+    await expectLater(
+        contacts,
+        throwsA(predicate((e) =>
+            e is PlatformException &&
+            e.code == ContactsService.cancelledCode)));
+  });
+
+  test('should only cancel the given request', () async {
+    final requestId = ContactsService.newRequestId();
+    final contacts = ContactsService.getContacts(requestId: requestId);
+
+    expect(await ContactsService.cancel(ContactsService.newRequestId()),
+        isFalse);
+    expect(await ContactsService.cancel(requestId), isTrue);
+    await expectLater(
+        contacts,
+        throwsA(predicate((e) =>
+            e is PlatformException &&
+            e.code == ContactsService.cancelledCode)));
+    expect(await ContactsService.cancel(requestId), isFalse);
+  });
+
+  test('should get performance stats', () async {
+    await ContactsService.setPerformanceStatsEnabled(true);
+    final stats = await ContactsService.getPerformanceStats(reset: true);
+
+    expect(log, <Matcher>[
+      isMethodCall('setPerformanceStatsEnabled',
+          arguments: <String, dynamic>{'enabled': true}),
+      isMethodCall('getPerformanceStats',
+          arguments: <String, dynamic>{'reset': true}),
+    ]);
+
+    expect(stats['query'].count, 2);
+    expect(stats['query'].p50, 1000);
+    expect(stats['query'].p99, 2000);
+  });
+
   test('should add contact', () async {
     await ContactsService.addContact(Contact(
       givenName: 'givenName',
@@ -91,6 +389,21 @@ void main() {
     expectMethodCall(log, 'addContact');
   });
 
+  test('should add contacts in one call', () async {
+    final contacts = [
+      Contact(givenName: 'givenName1'),
+      Contact(givenName: 'givenName2'),
+    ];
+
+    final results = await ContactsService.addContacts(contacts);
+
+    expect(log, <Matcher>[
+      isMethodCall('addContacts',
+          arguments: contacts.map((c) => c.toMap()).toList()),
+    ]);
+    expect(results, [true, false]);
+  });
+
   test('should delete contact', () async {
     await ContactsService.deleteContact(Contact(
       givenName: 'givenName',